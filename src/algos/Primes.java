@@ -1,161 +1,344 @@
 package algos;
 
+import java.math.BigInteger;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.Arrays;
-import java.util.Map.Entry;
-import java.util.TreeMap;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.TreeSet;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import algos.primes.BigPrimalityTest;
+import algos.primes.Constellations;
+import algos.primes.Factorization;
+import algos.primes.GoldbachPartitions;
+import algos.primes.IncrementalSieve;
+import algos.primes.MultiplicativeFunctions;
+import algos.primes.ParallelSieve;
+import algos.primes.PrimalityTest;
+import algos.primes.PrimeCache;
+import algos.primes.PrimeCounting;
+import algos.primes.PrimeGapList;
+import algos.primes.PrimeIndex;
+import algos.primes.PrimeSieve;
+import algos.primes.PrimeSieveSelector;
+import algos.primes.PrimeSums;
+import algos.primes.ProgressionSieve;
+import algos.primes.PrimeTableFile;
+import algos.primes.SegmentedSieve;
+import algos.primes.SizedPrimeSpliterator;
+import algos.primes.SpillingSieve;
+import algos.primes.Wheel;
+import algos.primes.WheelBitmap;
 
 
 public class Primes {
 
-	TreeSet<Integer> primeNumbersForWheel = new TreeSet<Integer>(Arrays.asList(2,3,5,7,11));
+	private static final int[] DEFAULT_WHEEL_PRIMES = {2, 3, 5, 7, 11};
 
-	Integer wheelMultiple = primeNumbersForWheel.stream().reduce(1, (i,j) -> i*j);
-	TreeSet<Integer> spokesOk = getSpokesOk();
-	TreeMap<Long, Boolean> mostlyPrimes = new TreeMap<>();
-	TreeSet<Integer> primesOnFirstRow = getPrimesOnFirstRow();
-	TreeMap<Long, Long> primes = getFirstPrimes();
+	final Wheel wheel;
+	SegmentedSieve sieve;
 	long dur, dur2, dur3;
-	int currentPrime;
 
-	public TreeSet<Integer> getSpokesOk() {
-		LocalDateTime before  = LocalDateTime.now();
-		TreeSet<Integer> spokesOk = new TreeSet<>();
-		spokesOk.add(1);
-		IntStream.rangeClosed(primeNumbersForWheel.last()+1, wheelMultiple).filter(i -> i%2 != 0).boxed().collect(Collectors.toCollection(()-> spokesOk));
-		for (Integer prime : primeNumbersForWheel) {
-			if (prime == 2) {
-				continue;
-			}
-			removeMultiplesOfPrimeInCollection(prime, spokesOk);
+	public Primes() {
+		this(DEFAULT_WHEEL_PRIMES);
+	}
+
+	/**
+	 * @param wheelPrimes primes of the wheel : the first 3 to 6 primes (2.3.5 = 30 up to 2.3.5.7.11.13 = 30030).
+	 * A bigger wheel leaves fewer candidates to sieve, for bigger tables.
+	 */
+	public Primes(int... wheelPrimes) {
+		int[] firstPrimes = SegmentedSieve.smallPrimes(14);
+		if (wheelPrimes.length < 3 || wheelPrimes.length > firstPrimes.length
+				|| !Arrays.equals(wheelPrimes, Arrays.copyOf(firstPrimes, wheelPrimes.length))) {
+			throw new IllegalArgumentException("The wheel must be made of the first 3 to 6 primes : " + Arrays.toString(wheelPrimes));
 		}
-		LocalDateTime after  = LocalDateTime.now();
-		Duration duration = Duration.between(before, after);
-		System.out.println("Duree du calcul : " + duration.getSeconds() + "s " + duration.getNano()/1_000_000 + "ms");
+		wheel = Wheel.of(wheelPrimes);
+		sieve = new SegmentedSieve(wheel);
+	}
 
-		return spokesOk;
+	/**
+	 * Spokes of the wheel, read from the primitive tables of the wheel.
+	 */
+	public TreeSet<Integer> getSpokesOk() {
+		return Arrays.stream(wheel.getSpokes()).boxed().collect(Collectors.toCollection(TreeSet::new));
+	}
 
+	/**
+	 * Primes below the modulus of the wheel : the wheel primes and the prime spokes of the first turn.
+	 */
+	public TreeSet<Integer> getPrimesOnFirstRow() {
+		return Arrays.stream(SegmentedSieve.smallPrimes(wheel.getModulus())).boxed().collect(Collectors.toCollection(TreeSet::new));
 	}
 
-	public void removeMultiplesOfPrimeInCollection(Integer prime, TreeSet<Integer> treeSet) {
-		for (int multiplePrime = prime*prime ; multiplePrime < wheelMultiple ; multiplePrime += 2*prime) {
-			if (treeSet.contains(multiplePrime)) {
-				treeSet.remove(multiplePrime);
-			}
-		}
+	/**
+	 * Primes up to Integer.MAX_VALUE (included) in a sized stream, sieved when the stream reaches them : it splits
+	 * in sub-ranges sieved by the workers when made parallel.
+	 */
+	public static IntStream stream() {
+		return longStream(0, Integer.MAX_VALUE + 1L).mapToInt(i -> (int) i);
 	}
 
-	public TreeSet<Integer> getPrimesOnFirstRow() {
-		LocalDateTime before  = LocalDateTime.now();
-		TreeSet<Integer> primesOnFirstRow = new TreeSet<>(spokesOk);
-		primesOnFirstRow.remove(1);
-		primesOnFirstRow.addAll(primeNumbersForWheel);
-		for (Integer prime : spokesOk) {
-			if (prime == 1) {
-				continue;
-			}
-			removeMultiplesOfPrimeInCollection(prime, primesOnFirstRow);
-		}
-		LocalDateTime after  = LocalDateTime.now();
-		Duration duration = Duration.between(before, after);
-		System.out.println("Duree du calcul : " + duration.getSeconds() + "s " + duration.getNano()/1_000_000 + "ms");
+	/**
+	 * Prime table shared by the whole process : lookups below its high-water mark never lock.
+	 */
+	public static PrimeCache cache() {
+		return SharedSieve.CACHE;
+	}
 
-		return primesOnFirstRow;
+	/**
+	 * Infinite stream of the primes : each segment is sieved only when the stream reaches it.
+	 */
+	public static LongStream longStream() {
+		return SharedSieve.SIEVE.stream(0, Long.MAX_VALUE);
 	}
 
-	private TreeMap<Long, Long> getFirstPrimes() {
-		LocalDateTime before  = LocalDateTime.now();
-		TreeMap<Long, Long> primes = new TreeMap<>();
-		TreeSet<Integer> primesNotInGenerator = new TreeSet<>(primesOnFirstRow);
-		primesNotInGenerator.removeAll(primeNumbersForWheel);
-		primesNotInGenerator.stream().forEach(i -> primes.put((long)i, (long) (i*i)));
-		LocalDateTime after  = LocalDateTime.now();
-		Duration duration = Duration.between(before, after);
-		System.out.println("Duree du calcul : " + duration.getSeconds() + "s " + duration.getNano()/1_000_000 + "ms");
+	/**
+	 * Number of primes lower than or equal to x, without enumerating them (Meissel-Lehmer).
+	 */
+	public static long pi(long x) {
+		return SharedSieve.COUNTING.pi(x);
+	}
 
-		return primes;
+	/**
+	 * Exact sum of the primes lower than or equal to x, in O(x^(3/4)) without enumerating them.
+	 */
+	public static BigInteger sumOfPrimes(long x) {
+		return PrimeSums.sum(x, 1);
 	}
 
-	public static IntStream stream() {
-		return new Primes().solve();
+	/**
+	 * Sum of p^k modulo modulus for the primes p lower than or equal to x.
+	 */
+	public static long sumOfPrimePowers(long x, int k, long modulus) {
+		return PrimeSums.sum(x, k, modulus);
+	}
+
+	/**
+	 * Primes of [lo, hi), only this window being sieved (hi up to RangeSieve.MAX_HI = (2^31 - 11)^2, about 4.6*10^18).
+	 */
+	public static LongStream primesBetween(long lo, long hi) {
+		return SharedSieve.SIEVE.primesBetween(lo, hi);
+	}
+
+	/**
+	 * Primes p = a (mod q) of [lo, hi) : only the numbers of the progression are sieved.
+	 */
+	public static LongStream primesInProgression(long q, long a, long lo, long hi) {
+		return new ProgressionSieve(q, a).stream(lo, hi);
+	}
+
+	/**
+	 * Number of primes p = a (mod q) within [lo, hi).
+	 */
+	public static long countPrimesInProgression(long q, long a, long lo, long hi) {
+		return new ProgressionSieve(q, a).count(lo, hi);
+	}
+
+	/**
+	 * Starts s within [lo, hi) of the prime constellation : every s + offsets[i] is prime.
+	 * @param offsets pattern starting with 0, as (0, 2) for the twin primes or (0, 2, 6, 8) for the quadruplets
+	 */
+	public static LongStream constellations(int[] offsets, long lo, long hi) {
+		return new Constellations(SharedSieve.SIEVE).stream(offsets, lo, hi);
+	}
+
+	/**
+	 * The n-th prime (nthPrime(1) = 2) : pi is computed at a lower bound of the prime, then only the window is sieved.
+	 */
+	public static long nthPrime(long n) {
+		return SharedSieve.COUNTING.nthPrime(n);
+	}
+
+	/**
+	 * Prime factors of n in ascending order, with their multiplicity.
+	 */
+	public static long[] factor(long n) {
+		return SharedFactorization.FACTORIZATION.factor(n);
 	}
 
+	/**
+	 * Prime factors of each value, the values being factored in parallel.
+	 */
+	public static long[][] factor(long[] values) {
+		return SharedFactorization.FACTORIZATION.factor(values);
+	}
+
+	/**
+	 * Deterministic primality test : sieve lookup for small numbers, Miller-Rabin above.
+	 */
+	public static boolean isPrime(long n) {
+		return SharedPrimalityTest.TEST.isPrime(n);
+	}
+
+	/**
+	 * Primality of each value, results[i] being set for values[i].
+	 */
+	public static void isPrime(long[] values, boolean[] results) {
+		SharedPrimalityTest.TEST.isPrime(values, results);
+	}
+
+	/**
+	 * Baillie-PSW probable primality of each value, results[i] being set for values[i] : the values are divided
+	 * by the small primes, then the survivors are tested on all the cores.
+	 */
+	public static void isProbablePrime(BigInteger[] values, boolean[] results) {
+		SharedBigPrimalityTest.TEST.isProbablePrime(values, results);
+	}
+
+	/**
+	 * Probable primes within [lo, hi) (hi - lo below 2^62), sieved by the small primes before Baillie-PSW.
+	 */
+	public static Stream<BigInteger> probablePrimesBetween(BigInteger lo, BigInteger hi) {
+		return SharedBigPrimalityTest.TEST.probablePrimesBetween(lo, hi);
+	}
+
+	/**
+	 * Goldbach partitions n = p + q of every even n <= limit, counted in one convolution.
+	 */
+	public static GoldbachPartitions goldbachPartitions(int limit) {
+		return GoldbachPartitions.upTo(SharedSieve.SIEVE, limit);
+	}
+
+	/**
+	 * Tables of the requested functions (totient, Moebius, number and sum of divisors) for n < limit, in one linear sieve.
+	 */
+	public static MultiplicativeFunctions multiplicativeFunctions(int limit, MultiplicativeFunctions.Function... functions) {
+		return MultiplicativeFunctions.tables(limit, functions);
+	}
+
+	/**
+	 * Same values over [lo, hi), segment after segment, for ranges which do not hold in the heap.
+	 */
+	public static Stream<MultiplicativeFunctions.Segment> multiplicativeFunctions(long lo, long hi,
+			MultiplicativeFunctions.Function... functions) {
+		return MultiplicativeFunctions.segments(lo, hi, functions);
+	}
+
+	/**
+	 * Endless stream of the primes from an incremental sieve : the memory only grows with pi(sqrt(n)),
+	 * for consumers which do not know their upper bound.
+	 */
+	public static LongStream incrementalStream() {
+		int characteristics = Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.SORTED
+				| Spliterator.NONNULL | Spliterator.IMMUTABLE;
+		return StreamSupport.longStream(Spliterators.spliteratorUnknownSize(
+				new IncrementalSieve(SharedSieve.SIEVE.getWheel()), characteristics), false);
+	}
+
+	/**
+	 * Primes of [lo, hi) in a sized stream which splits in sub-ranges sieved by the workers when made parallel.
+	 */
+	public static LongStream longStream(long lo, long hi) {
+		return StreamSupport.longStream(new SizedPrimeSpliterator(SharedSieve.SIEVE, SharedSieve.COUNTING, lo, hi), false);
+	}
+
+	public static IntStream parallelStream() {
+		return new Primes().solveParallel();
+	}
+
+	/**
+	 * Primes up to Integer.MAX_VALUE (included), sieved when the stream reaches them. The stream splits in sub-ranges
+	 * sieved by the workers when made parallel.
+	 */
 	public IntStream solve() {
-		//spokesOk.stream().forEach(i -> System.out.println(i));
-		//primesOnFirstRow.stream().forEach(i -> System.out.println(i));
-		// Initialization of sieve
-		int limitNumber = wheelMultiple <= 2*3*5*7*11 ? wheelMultiple*wheelMultiple : 5336100;
-		spokesOk.stream().forEach(i -> mostlyPrimes.put(0L + i + wheelMultiple, false));
-		generateSieveUntilNumber(limitNumber);
-		checkoutNonPrimeNumbersUntil(limitNumber);
-
-		IntStream beginStream = primesOnFirstRow.stream().mapToInt(i -> i);
-		IntStream stream = mostlyPrimes.keySet().stream().mapToInt(i -> i.intValue());
-		//IntStream stream = IntStream.generate(() -> getNextPrime());
-		return IntStream.concat(beginStream, stream);
-	}
-
-	private int getNextPrime() {
-		//		for (currentNumber = mostlyPrimes.firstKey()
-		//				; mostlyPrimes.get(currentNumber).equals(true) 
-		//				; currentNumber = mostlyPrimes.higherKey(currentNumber) ) {}
-		//		LocalDateTime beforeAll = LocalDateTime.now();
-		Long currentNumber = mostlyPrimes.firstKey();
-		mostlyPrimes.keySet().remove(currentNumber);
-		long square = currentNumber < 5000 ? currentNumber*currentNumber : 0;
-		//		LocalDateTime before = LocalDateTime.now();
-		double multiplicateur = 1.2;
-		generateSieveUntilNumber((long)(multiplicateur*currentNumber));
-		//		LocalDateTime after  = LocalDateTime.now();
-		checkoutNonPrimeNumbersUntil((long)(multiplicateur*currentNumber));
-		//		LocalDateTime after2  = LocalDateTime.now();
-		//		Duration duration = Duration.between(before, after);
-		//		Duration duration2 = Duration.between(after, after2);
-		//		dur += duration.getNano();
-		//		dur2 += duration2.getNano();
-		primes.put(currentNumber, square);
-		//		LocalDateTime afterAll  = LocalDateTime.now();
-		//		Duration duration3 = Duration.between(beforeAll, afterAll);
-		//		dur3 += duration3.getNano();
-		return currentNumber.intValue();
-	}
-
-	// Top non included
-	private void checkoutNonPrimeNumbersUntil(long top) {
-		for (Entry<Long, Long> primeEntry : primes.entrySet()) {
-			long nextNumberToCheck = primeEntry.getValue();
-			if(nextNumberToCheck > top) {
-				break;
-			}
-			long lastNumberChecked = nextNumberToCheck;
-			for ( 	; nextNumberToCheck < top 
-					; nextNumberToCheck += 2*primeEntry.getKey()) {
-				if(mostlyPrimes.containsKey(nextNumberToCheck)) {
-					mostlyPrimes.remove(nextNumberToCheck);
-				}
-				lastNumberChecked = nextNumberToCheck;
-			}
-			primeEntry.setValue(lastNumberChecked);
-		}
+		//getSpokesOk().stream().forEach(i -> System.out.println(i));
+		//getPrimesOnFirstRow().stream().forEach(i -> System.out.println(i));
+		return StreamSupport.longStream(new SizedPrimeSpliterator(sieve, SharedSieve.COUNTING, 0, Integer.MAX_VALUE + 1L), false)
+				.mapToInt(i -> (int) i);
+	}
 
+	/**
+	 * Primes below limitNumber, the segments being sieved by all the cores.
+	 */
+	public IntStream solveParallel() {
+		return new ParallelSieve(sieve).intStream(getLimitNumber());
 	}
 
-	private void generateSieveUntilNumber(long n) {
-		long targetMultiple = (n / wheelMultiple);
-		long currentMultiple = getCurrentMultiple();
-		while (currentMultiple++ < targetMultiple) {
-			for(int i : spokesOk) {
-				mostlyPrimes.put(i + currentMultiple*wheelMultiple, false);
-			}
-		}
+	/**
+	 * Primes strictly lower than limit, the segments being sieved by all the cores.
+	 */
+	public LongStream solveParallel(long limit) {
+		return new ParallelSieve(sieve).stream(limit);
+	}
+
+	/**
+	 * Primes below limit in a wheel-compressed bitmap (one bit per spoke and per wheel turn).
+	 */
+	public WheelBitmap toWheelBitmap(long limit) {
+		return WheelBitmap.build(sieve, limit);
+	}
+
+	/**
+	 * Primes below limit in a gap-compressed list, about one byte per prime.
+	 */
+	public static PrimeGapList primeList(long limit) {
+		return PrimeGapList.of(SharedSieve.SIEVE.stream(limit));
+	}
+
+	/**
+	 * Rank/select index over the primes below limit : pi(x) and the k-th prime in constant time.
+	 */
+	public static PrimeIndex primeIndex(long limit) {
+		return new PrimeIndex(WheelBitmap.build(SharedSieve.SIEVE, limit));
+	}
+
+	/**
+	 * Sieve engine suited to the window [lo, hi) and the cores of this JVM.
+	 */
+	public static PrimeSieve sieveFor(long lo, long hi) {
+		return SharedSieve.SELECTOR.select(lo, hi);
+	}
+
+	/**
+	 * Prime table below limit stored in path : the file is mapped if it was already written for the same wheel
+	 * and at least the same limit, otherwise the primes are sieved and the file is (re)written.
+	 */
+	public static WheelBitmap openTable(Path path, long limit) {
+		return PrimeTableFile.openOrBuild(path, Wheel.of(DEFAULT_WHEEL_PRIMES), limit);
+	}
+
+	/**
+	 * Sieves the primes below limit into the table file path, the sieve keeping at most heapBudget bytes in the heap :
+	 * for the limits whose primes do not fit in memory. Stream them back with {@link SpillingSieve#stream()}.
+	 */
+	public static SpillingSieve sieveToFile(Path path, long limit, long heapBudget) {
+		return SpillingSieve.build(SharedSieve.SIEVE, path, limit, heapBudget);
+	}
+
+	private int getLimitNumber() {
+		int wheelMultiple = wheel.getModulus();
+		return wheelMultiple <= 2*3*5*7*11 ? wheelMultiple*wheelMultiple : 5336100;
+	}
+
+	/** Sieve shared by the static methods, built on first use. */
+	private static class SharedSieve {
+		static final SegmentedSieve SIEVE = new SegmentedSieve(Wheel.of(DEFAULT_WHEEL_PRIMES));
+		static final PrimeCounting COUNTING = new PrimeCounting(SIEVE);
+		static final PrimeCache CACHE = new PrimeCache(SIEVE);
+		static final PrimeSieveSelector SELECTOR = new PrimeSieveSelector(SIEVE);
+	}
+
+	/** Primality test with its sieve table, built on first use. */
+	private static class SharedPrimalityTest {
+		static final PrimalityTest TEST = new PrimalityTest(WheelBitmap.build(SharedSieve.SIEVE, 1 << 24));
+	}
+
+	/** Probable prime test of the big numbers, dividing by the primes below 2^12 (built on first use). */
+	private static class SharedBigPrimalityTest {
+		static final BigPrimalityTest TEST = new BigPrimalityTest(1 << 12);
 	}
 
-	private long getCurrentMultiple() {
-		return mostlyPrimes.lastKey() / wheelMultiple;
+	/** Factorization with its smallest factor table, built on first use. */
+	private static class SharedFactorization {
+		static final Factorization FACTORIZATION = new Factorization(SharedSieve.SIEVE.getWheel(), 1 << 24);
 	}
 
 	public static void main(String...args) {
@@ -164,9 +347,9 @@ public class Primes {
 		//		LocalDateTime before2  = LocalDateTime.now();
 		//		Duration duration2 = Duration.between(before, before2);
 		//		System.out.println("Duree du calcul : " + duration2.getSeconds() + "s " + duration2.getNano()/1_000_000 + "ms");
-		IntStream stream = pg.solve();
+		//IntStream stream = pg.solve();
 		//stream.limit(500).forEach(i -> System.out.println(i + ","));
-		int result = stream.limit(2_000).max().getAsInt();
+		long result = nthPrime(2_000);
 		System.out.println(result);
 		LocalDateTime after  = LocalDateTime.now();
 		Duration duration = Duration.between(before, after);
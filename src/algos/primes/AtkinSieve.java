@@ -0,0 +1,154 @@
+package algos.primes;
+
+import java.util.Arrays;
+import java.util.stream.LongStream;
+
+/**
+ * Segmented sieve of Atkin, on the same odd bitmap as {@link SegmentedSieve} (bit b of the segment starting
+ * at low stands for low + 2b + 1).<br>
+ * A number n > 5 is flipped for each solution of the quadratic form of its residue modulo 60 :
+ * 4x^2 + y^2 = n (n = 1, 13, 17, 29, 37, 41, 49, 53), 3x^2 + y^2 = n (n = 7, 19, 31, 43),
+ * 3x^2 - y^2 = n with x > y (n = 11, 23, 47, 59). The squarefree numbers flipped an odd number of times are
+ * the primes : the multiples of the squares of the base primes are then removed.<br>
+ * Reference engine, to cross-check the other sieves : each segment walks all the x up to the square root
+ * of its end again, so a segment costs O(sqrt(hi)) and the engine is unusable past about 10^10.
+ * It is not a {@link PrimeSieve} : {@link PrimeSieveSelector} can not pick it.
+ */
+public class AtkinSieve {
+
+	/** Quadratic form of each residue modulo 60, 0 if the residue can not be a prime > 5. */
+	private static final byte[] FORM = new byte[60];
+	static {
+		for (int r : new int[] {1, 13, 17, 29, 37, 41, 49, 53}) {
+			FORM[r] = 1;
+		}
+		for (int r : new int[] {7, 19, 31, 43}) {
+			FORM[r] = 2;
+		}
+		for (int r : new int[] {11, 23, 47, 59}) {
+			FORM[r] = 3;
+		}
+	}
+
+	/**
+	 * Primes of [lo, hi) in ascending order.
+	 */
+	public LongStream primesBetween(long lo, long hi) {
+		long from = Math.max(lo, 0), firstLow = from / SegmentedSieve.SEGMENT_SPAN * SegmentedSieve.SEGMENT_SPAN;
+		if (hi > RangeSieve.MAX_HI) {
+			throw new IllegalArgumentException("hi must be at most " + RangeSieve.MAX_HI);
+		}
+		if (from >= hi) {
+			return LongStream.empty();
+		}
+		int[] basePrimes = SegmentedSieve.basePrimesFor(hi);
+		long nbSegments = (hi - firstLow + SegmentedSieve.SEGMENT_SPAN - 1) / SegmentedSieve.SEGMENT_SPAN;
+		return LongStream.range(0, nbSegments)
+				.mapToObj(i -> {
+					long low = firstLow + i * SegmentedSieve.SEGMENT_SPAN;
+					long[] bits = new long[SegmentedSieve.SEGMENT_BITS / 64];
+					sieveSegment(low, bits, basePrimes);
+					return SegmentedSieve.toPrimes(low, bits, from, hi);
+				})
+				.flatMapToLong(Arrays::stream);
+	}
+
+	/**
+	 * Number of primes within [lo, hi).
+	 */
+	public long count(long lo, long hi) {
+		return primesBetween(lo, hi).count();
+	}
+
+	/**
+	 * Sieves the segment [low, low + 128 * bits.length) : after the call, the bits set are its odd primes.
+	 * @param basePrimes primes at least up to the square root of the segment end
+	 */
+	void sieveSegment(long low, long[] bits, int[] basePrimes) {
+		Arrays.fill(bits, 0);
+		long high = low + 128L * bits.length;
+		// 4x^2 + y^2, y odd
+		for (long x = 1 ; 4 * x * x < high ; x++) {
+			long base = 4 * x * x;
+			long y = firstY(base, low, 1);
+			for (long n = base + y * y ; n < high ; y += 2, n = base + y * y) {
+				flip(low, bits, n, 1);
+			}
+		}
+		// 3x^2 + y^2, x + y odd
+		for (long x = 1 ; 3 * x * x < high ; x++) {
+			long base = 3 * x * x;
+			long y = firstY(base, low, 1 - (x & 1));
+			for (long n = base + y * y ; n < high ; y += 2, n = base + y * y) {
+				flip(low, bits, n, 2);
+			}
+		}
+		// 3x^2 - y^2, x > y >= 1, x + y odd : n decreases when y grows, from high down to low
+		for (long x = 2 ; 2 * x * x + 2 * x - 1 < high ; x++) {
+			long base = 3 * x * x;
+			if (base - 1 < low) {
+				continue;
+			}
+			long y = base - high < 0 ? 0 : isqrt(base - high) + 1; // smallest y with base - y^2 < high
+			if (((x + y) & 1) == 0) {
+				y++;
+			}
+			if (y == 0) {
+				y = 2;
+			}
+			for (long n = base - y * y ; y < x && n >= low ; y += 2, n = base - y * y) {
+				flip(low, bits, n, 3);
+			}
+		}
+		// multiples of the squares of the base primes
+		for (int prime : basePrimes) {
+			if (prime < 7) {
+				continue;
+			}
+			long square = (long) prime * prime;
+			if (square >= high) {
+				break;
+			}
+			long start = Math.max(square, (low + square - 1) / square * square);
+			if ((start & 1) == 0) {
+				start += square;
+			}
+			for (long n = start ; n < high ; n += 2 * square) {
+				long bit = (n - low) >>> 1;
+				bits[(int) (bit >>> 6)] &= ~(1L << bit);
+			}
+		}
+		if (low == 0) {
+			bits[0] |= 1L << 1 | 1L << 2; // 3 and 5
+		}
+	}
+
+	/**
+	 * Smallest y >= 1, y = parity (mod 2), with base + y^2 >= low.
+	 */
+	private static long firstY(long base, long low, long parity) {
+		long y = base >= low ? 0 : isqrt(low - base - 1) + 1;
+		if ((y & 1) != parity) {
+			y++;
+		}
+		return y == 0 ? 2 : y;
+	}
+
+	private static void flip(long low, long[] bits, long n, int form) {
+		if (FORM[(int) (n % 60)] == form) {
+			long bit = (n - low) >>> 1;
+			bits[(int) (bit >>> 6)] ^= 1L << bit;
+		}
+	}
+
+	private static long isqrt(long n) {
+		long r = (long) Math.sqrt((double) n);
+		while (r * r > n) {
+			r--;
+		}
+		while ((r + 1) * (r + 1) <= n) {
+			r++;
+		}
+		return r;
+	}
+}
@@ -0,0 +1,363 @@
+package algos.primes;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+/**
+ * Baillie-PSW probable prime test for BigInteger values, by batches.<br>
+ * The candidates are first divided by the odd primes up to a bound : the primes are grouped in products
+ * below 2^31, so that the residue of a value modulo a product is one pass of 64-bit remainders over its 32-bit words.
+ * In a range, the residues of its first number are computed once, the multiples of each prime then being
+ * crossed out of a bitmap of the odd numbers as in {@link SegmentedSieve}.<br>
+ * The survivors go through a strong probable prime test to base 2 and a strong Lucas test (Selfridge parameters),
+ * on all the cores. No composite passing both is known. Values below 2^62 get the deterministic 64-bit test.
+ */
+public class BigPrimalityTest {
+
+	/** Odd numbers of a range window (one bit each). */
+	private static final int WINDOW_BITS = 1 << 16;
+	private static final BigInteger TWO = BigInteger.valueOf(2);
+
+	final int[] primes;
+	/** Products of consecutive primes below 2^31, and the index of the first prime of each product (one more at the end). */
+	final long[] products;
+	final int[] firstPrimes;
+
+	/**
+	 * @param trialBound the candidates are divided by the odd primes up to this bound
+	 */
+	public BigPrimalityTest(int trialBound) {
+		if (trialBound < 3 || trialBound >= Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("The trial bound must be in [3, " + Integer.MAX_VALUE + ") : " + trialBound);
+		}
+		int[] smallPrimes = SegmentedSieve.smallPrimes(trialBound + 1);
+		primes = Arrays.copyOfRange(smallPrimes, 1, smallPrimes.length);
+		long[] groupProducts = new long[primes.length];
+		int[] groupFirsts = new int[primes.length + 1];
+		int nbGroups = 0;
+		for (int i = 0 ; i < primes.length ; nbGroups++) {
+			groupFirsts[nbGroups] = i;
+			long product = primes[i++];
+			while (i < primes.length && product * primes[i] < (1L << 31)) {
+				product *= primes[i++];
+			}
+			groupProducts[nbGroups] = product;
+		}
+		groupFirsts[nbGroups] = primes.length;
+		products = Arrays.copyOf(groupProducts, nbGroups);
+		firstPrimes = Arrays.copyOf(groupFirsts, nbGroups + 1);
+	}
+
+	/**
+	 * Probable primality of each value, results[i] being set for values[i].
+	 */
+	public void isProbablePrime(BigInteger[] values, boolean[] results) {
+		IntStream.range(0, values.length).parallel().forEach(i -> results[i] = isProbablePrime(values[i]));
+	}
+
+	public boolean isProbablePrime(BigInteger n) {
+		if (n.signum() <= 0) {
+			return false;
+		}
+		if (n.bitLength() < 62) {
+			return isPrime(n.longValue());
+		}
+		if (!n.testBit(0)) {
+			return false;
+		}
+		int[] words = words(n);
+		for (int g = 0 ; g < products.length ; g++) {
+			long remainder = remainder(words, products[g]);
+			for (int i = firstPrimes[g] ; i < firstPrimes[g + 1] ; i++) {
+				if (remainder % primes[i] == 0) {
+					return false;
+				}
+			}
+		}
+		return isBaillieProbablePrime(n);
+	}
+
+	/**
+	 * Deterministic test below 2^62 : trial division, then Miller-Rabin with the 64-bit bases.
+	 */
+	private boolean isPrime(long n) {
+		if (n < 3) {
+			return n == 2;
+		}
+		if ((n & 1) == 0) {
+			return false;
+		}
+		for (int prime : primes) {
+			if ((long) prime * prime > n) {
+				return true;
+			}
+			if (n % prime == 0) {
+				return false;
+			}
+		}
+		return PrimalityTest.millerRabin(n, PrimalityTest.BASES_64);
+	}
+
+	/**
+	 * Probable primes within [lo, hi), in ascending order : hi - lo must be below 2^62.
+	 */
+	public Stream<BigInteger> probablePrimesBetween(BigInteger lo, BigInteger hi) {
+		BigInteger from = lo.max(BigInteger.ZERO);
+		if (from.compareTo(hi) >= 0) {
+			return Stream.empty();
+		}
+		if (hi.subtract(from).bitLength() > 62) {
+			throw new IllegalArgumentException("The range must be below 2^62 numbers : [" + lo + ", " + hi + ")");
+		}
+		Stream<BigInteger> two = from.compareTo(TWO) <= 0 && hi.compareTo(TWO) > 0 ? Stream.of(TWO) : Stream.empty();
+		BigInteger first = from.setBit(0);
+		if (first.compareTo(hi) >= 0) {
+			return two;
+		}
+		long nbBits = hi.subtract(first).add(BigInteger.ONE).shiftRight(1).longValue();
+		long[] residues = residues(first);
+		long firstSmall = first.bitLength() < 62 ? first.longValue() : -1;
+		long nbWindows = (nbBits + WINDOW_BITS - 1) / WINDOW_BITS;
+		Stream<BigInteger> odd = LongStream.range(0, nbWindows)
+				.mapToObj(w -> {
+					long firstBit = w * WINDOW_BITS;
+					long[] bits = sieveWindow(residues, firstSmall, firstBit, (int) Math.min(WINDOW_BITS, nbBits - firstBit));
+					return survivors(first, firstBit, bits);
+				})
+				.flatMap(Arrays::stream);
+		return Stream.concat(two, odd);
+	}
+
+	/**
+	 * Residues of n modulo each prime.
+	 */
+	long[] residues(BigInteger n) {
+		int[] words = words(n);
+		long[] residues = new long[primes.length];
+		for (int g = 0 ; g < products.length ; g++) {
+			long remainder = remainder(words, products[g]);
+			for (int i = firstPrimes[g] ; i < firstPrimes[g + 1] ; i++) {
+				residues[i] = remainder % primes[i];
+			}
+		}
+		return residues;
+	}
+
+	/**
+	 * Bitmap of the odd numbers first + 2 * (firstBit + i), 0 <= i < nbBits, without the multiples of the primes.
+	 * @param firstSmall first if it is below 2^62, so that the primes themselves are kept, -1 otherwise
+	 */
+	private long[] sieveWindow(long[] residues, long firstSmall, long firstBit, int nbBits) {
+		long[] bits = new long[(nbBits + 63) >>> 6];
+		Arrays.fill(bits, -1L);
+		if ((nbBits & 63) != 0) {
+			bits[bits.length - 1] = (1L << nbBits) - 1;
+		}
+		for (int i = 0 ; i < primes.length ; i++) {
+			long p = primes[i];
+			// first + 2 * (firstBit + j) = 0 (mod p) : j = -(r + 2 * firstBit) / 2 (mod p)
+			long r = (residues[i] + 2 * (firstBit % p)) % p;
+			long j = (p - r) % p * ((p + 1) >>> 1) % p;
+			if (firstSmall >= 0 && p * p > firstSmall + 2 * (firstBit + j)) {
+				// start from p^2 : the prime itself and its smaller multiples are left
+				long square = p * p;
+				if (square > firstSmall + 2 * (firstBit + nbBits)) {
+					continue;
+				}
+				j = (square - firstSmall) / 2 - firstBit;
+			}
+			for ( ; j < nbBits ; j += p) {
+				bits[(int) (j >>> 6)] &= ~(1L << j);
+			}
+		}
+		if (firstSmall == 1 && firstBit == 0) {
+			bits[0] &= ~1L; // 1 is not prime
+		}
+		return bits;
+	}
+
+	private BigInteger[] survivors(BigInteger first, long firstBit, long[] bits) {
+		int count = 0;
+		for (long word : bits) {
+			count += Long.bitCount(word);
+		}
+		long[] offsets = new long[count];
+		int position = 0;
+		for (int i = 0 ; i < bits.length ; i++) {
+			for (long word = bits[i] ; word != 0 ; word &= word - 1) {
+				offsets[position++] = 2 * (firstBit + 64L * i + Long.numberOfTrailingZeros(word));
+			}
+		}
+		return Arrays.stream(offsets).parallel()
+				.mapToObj(offset -> first.add(BigInteger.valueOf(offset)))
+				.filter(n -> n.bitLength() < 62 ? isPrime(n.longValue()) : isBaillieProbablePrime(n))
+				.toArray(BigInteger[]::new);
+	}
+
+	/**
+	 * 32-bit words of n >= 0, most significant first.
+	 */
+	static int[] words(BigInteger n) {
+		byte[] bytes = n.toByteArray();
+		int[] words = new int[(bytes.length + 3) / 4];
+		for (int i = 0 ; i < bytes.length ; i++) {
+			int fromEnd = bytes.length - 1 - i;
+			words[words.length - 1 - fromEnd / 4] |= (bytes[i] & 0xFF) << (8 * (fromEnd % 4));
+		}
+		return words;
+	}
+
+	/**
+	 * Words modulo m < 2^31, by Horner's rule : the partial remainder shifted by 32 bits stays below 2^63.
+	 */
+	static long remainder(int[] words, long m) {
+		long remainder = 0;
+		for (int word : words) {
+			remainder = ((remainder << 32) | (word & 0xFFFFFFFFL)) % m;
+		}
+		return remainder;
+	}
+
+	/**
+	 * Strong probable prime to base 2 and strong Lucas probable prime, for an odd n without small factors.
+	 */
+	static boolean isBaillieProbablePrime(BigInteger n) {
+		return isStrongProbablePrime(n, TWO) && isStrongLucasProbablePrime(n);
+	}
+
+	static boolean isStrongProbablePrime(BigInteger n, BigInteger base) {
+		BigInteger nMinus1 = n.subtract(BigInteger.ONE);
+		int s = nMinus1.getLowestSetBit();
+		BigInteger x = base.modPow(nMinus1.shiftRight(s), n);
+		if (x.equals(BigInteger.ONE) || x.equals(nMinus1)) {
+			return true;
+		}
+		for (int r = 1 ; r < s ; r++) {
+			x = x.multiply(x).mod(n);
+			if (x.equals(nMinus1)) {
+				return true;
+			}
+			if (x.equals(BigInteger.ONE)) {
+				return false;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Strong Lucas test with P = 1, Q = (1 - D) / 4, D being the first of 5, -7, 9, -11... with (D/n) = -1.
+	 * With n + 1 = d * 2^s : U_d = 0 or V_(d*2^r) = 0 for some r < s (mod n).
+	 */
+	static boolean isStrongLucasProbablePrime(BigInteger n) {
+		long d = 5;
+		for (int tries = 0 ; ; tries++) {
+			int symbol = jacobi(d, n);
+			if (symbol == -1) {
+				break;
+			}
+			if (symbol == 0) {
+				return n.equals(BigInteger.valueOf(Math.abs(d)));
+			}
+			if (tries == 8 && isSquare(n)) {
+				return false; // no D would be found
+			}
+			d = d > 0 ? -d - 2 : -d + 2;
+		}
+		BigInteger bigD = BigInteger.valueOf(d);
+		BigInteger q = BigInteger.valueOf((1 - d) / 4).mod(n);
+		BigInteger nPlus1 = n.add(BigInteger.ONE);
+		int s = nPlus1.getLowestSetBit();
+		BigInteger k = nPlus1.shiftRight(s);
+		// U_1 = 1, V_1 = P = 1, Q^1
+		BigInteger u = BigInteger.ONE, v = BigInteger.ONE, qk = q;
+		for (int bit = k.bitLength() - 2 ; bit >= 0 ; bit--) {
+			u = u.multiply(v).mod(n);
+			v = v.multiply(v).subtract(qk.shiftLeft(1)).mod(n);
+			qk = qk.multiply(qk).mod(n);
+			if (k.testBit(bit)) {
+				BigInteger nextU = half(u.add(v), n);
+				v = half(bigD.multiply(u).add(v), n);
+				u = nextU;
+				qk = qk.multiply(q).mod(n);
+			}
+		}
+		if (u.signum() == 0 || v.signum() == 0) {
+			return true;
+		}
+		for (int r = 1 ; r < s ; r++) {
+			v = v.multiply(v).subtract(qk.shiftLeft(1)).mod(n);
+			if (v.signum() == 0) {
+				return true;
+			}
+			qk = qk.multiply(qk).mod(n);
+		}
+		return false;
+	}
+
+	/**
+	 * x / 2 modulo the odd n.
+	 */
+	private static BigInteger half(BigInteger x, BigInteger n) {
+		x = x.mod(n);
+		return (x.testBit(0) ? x.add(n) : x).shiftRight(1);
+	}
+
+	/**
+	 * Jacobi symbol (a/n) for a small a and an odd n > 0.
+	 */
+	static int jacobi(long a, BigInteger n) {
+		int result = 1;
+		if (a < 0) {
+			a = -a;
+			if (n.testBit(1)) {
+				result = -result; // (-1/n) = -1 for n = 3 (mod 4)
+			}
+		}
+		long m = n.mod(BigInteger.valueOf(a)).longValue();
+		// (a/n) = (n/a) unless a = n = 3 (mod 4), n being reduced modulo a
+		if ((a & 3) == 3 && n.testBit(1)) {
+			result = -result;
+		}
+		return a == 1 ? result : result * jacobi(m, a);
+	}
+
+	/**
+	 * Jacobi symbol (a/n) for 0 <= a and an odd n > 0.
+	 */
+	static int jacobi(long a, long n) {
+		int result = 1;
+		a %= n;
+		while (a != 0) {
+			while ((a & 1) == 0) {
+				a >>= 1;
+				long r = n & 7;
+				if (r == 3 || r == 5) {
+					result = -result;
+				}
+			}
+			long t = a;
+			a = n;
+			n = t;
+			if ((a & 3) == 3 && (n & 3) == 3) {
+				result = -result;
+			}
+			a %= n;
+		}
+		return n == 1 ? result : 0;
+	}
+
+	private static boolean isSquare(BigInteger n) {
+		// Newton's method from above
+		BigInteger x = BigInteger.ONE.shiftLeft((n.bitLength() + 1) / 2);
+		while (true) {
+			BigInteger y = x.add(n.divide(x)).shiftRight(1);
+			if (y.compareTo(x) >= 0) {
+				return x.multiply(x).equals(n);
+			}
+			x = y;
+		}
+	}
+}
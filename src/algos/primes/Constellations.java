@@ -0,0 +1,137 @@
+package algos.primes;
+
+import java.util.Arrays;
+import java.util.stream.LongStream;
+
+/**
+ * Prime constellations : the starts s such that s + offsets[i] is prime for every offset of a pattern,
+ * as (0, 2) for twin primes, (0, 4) for cousins or (0, 2, 6, 8) for prime quadruplets.<br>
+ * Above the wheel, a start must sit on a spoke r such that every r + offset is on a spoke too :
+ * only those residues are looked at, and each offset is checked directly in the bitmap of the segment
+ * (sieved a little beyond its end to hold the largest offset).
+ */
+public class Constellations {
+
+	final SegmentedSieve sieve;
+	final Wheel wheel;
+
+	public Constellations(SegmentedSieve sieve) {
+		this.sieve = sieve;
+		this.wheel = sieve.getWheel();
+	}
+
+	/**
+	 * Residues of the wheel which can start the pattern.
+	 */
+	int[] getAdmissibleResidues(int[] offsets) {
+		return Arrays.stream(wheel.spokes)
+				.filter(r -> Arrays.stream(offsets).allMatch(offset -> wheel.isOnSpoke(r + offset)))
+				.toArray();
+	}
+
+	/**
+	 * @param offsets pattern, starting with 0, in ascending order
+	 * @param hi hi + the largest offset must be at most {@link RangeSieve#MAX_HI}
+	 * @return the starts of the pattern within [lo, hi), in ascending order
+	 */
+	public LongStream stream(int[] offsets, long lo, long hi) {
+		if (offsets.length == 0 || offsets[0] != 0) {
+			throw new IllegalArgumentException("The pattern must start with 0 : " + Arrays.toString(offsets));
+		}
+		for (int i = 1 ; i < offsets.length ; i++) {
+			if (offsets[i] <= offsets[i - 1]) {
+				throw new IllegalArgumentException("The pattern must be ascending : " + Arrays.toString(offsets));
+			}
+		}
+		long from = Math.max(lo, 0);
+		if (hi <= from) {
+			return LongStream.empty();
+		}
+		int maxOffset = offsets[offsets.length - 1];
+		if (hi > RangeSieve.MAX_HI - maxOffset) {
+			throw new IllegalArgumentException("hi + " + maxOffset + " must be at most " + RangeSieve.MAX_HI + " : " + hi);
+		}
+		int[] residues = getAdmissibleResidues(offsets);
+		int[] basePrimes = SegmentedSieve.basePrimesFor(hi + maxOffset);
+		int extraWords = (maxOffset >>> 7) + 1;
+		long firstLow = from & ~127L;
+		long nbSegments = (hi - firstLow + SegmentedSieve.SEGMENT_SPAN - 1) / SegmentedSieve.SEGMENT_SPAN;
+		return LongStream.range(0, nbSegments).flatMap(segment -> {
+			long low = firstLow + segment * SegmentedSieve.SEGMENT_SPAN;
+			long[] bits = new long[SegmentedSieve.SEGMENT_BITS / 64 + extraWords];
+			sieve.sieveSegment(low, bits, basePrimes);
+			return LongStream.of(startsInSegment(offsets, residues, low, bits,
+					Math.max(from, low), Math.min(hi, low + SegmentedSieve.SEGMENT_SPAN)));
+		});
+	}
+
+	/**
+	 * Number of starts of the pattern within [lo, hi).
+	 */
+	public long count(int[] offsets, long lo, long hi) {
+		return stream(offsets, lo, hi).count();
+	}
+
+	/**
+	 * Starts within [from, to) of the segment : every number below the modulus of the wheel is checked,
+	 * above only the admissible residues of each turn.
+	 */
+	private long[] startsInSegment(int[] offsets, int[] residues, long low, long[] bits, long from, long to) {
+		long[] starts = new long[64];
+		int count = 0;
+		int modulus = wheel.modulus;
+		for (long start = from ; start < Math.min(to, modulus) ; start++) {
+			if (matches(offsets, start, low, bits)) {
+				starts = ensureCapacity(starts, count);
+				starts[count++] = start;
+			}
+		}
+		if (residues.length > 0 && to > modulus) {
+			long begin = Math.max(from, modulus);
+			long turn = begin / modulus;
+			int i = firstResidueFrom(residues, (int) (begin % modulus));
+			if (i == residues.length) {
+				i = 0;
+				turn++;
+			}
+			for (long start = turn * modulus + residues[i] ; start < to ; ) {
+				if (matches(offsets, start, low, bits)) {
+					starts = ensureCapacity(starts, count);
+					starts[count++] = start;
+				}
+				if (++i == residues.length) {
+					i = 0;
+					turn++;
+				}
+				start = turn * modulus + residues[i];
+			}
+		}
+		return Arrays.copyOf(starts, count);
+	}
+
+	private static int firstResidueFrom(int[] residues, int residue) {
+		int index = Arrays.binarySearch(residues, residue);
+		return index >= 0 ? index : -index - 1;
+	}
+
+	private static long[] ensureCapacity(long[] starts, int count) {
+		return count < starts.length ? starts : Arrays.copyOf(starts, 2 * starts.length);
+	}
+
+	private static boolean matches(int[] offsets, long start, long low, long[] bits) {
+		for (int offset : offsets) {
+			if (!isPrimeInSegment(start + offset, low, bits)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isPrimeInSegment(long n, long low, long[] bits) {
+		if ((n & 1) == 0) {
+			return n == 2;
+		}
+		long bit = (n - low) >>> 1;
+		return (bits[(int) (bit >>> 6)] & (1L << bit)) != 0;
+	}
+}
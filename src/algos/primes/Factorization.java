@@ -0,0 +1,193 @@
+package algos.primes;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import algos.primes.PrimalityTest.Montgomery;
+
+/**
+ * Factorization of 64-bit numbers.<br>
+ * Below the limit of the table, the smallest prime factor of each number coprime to the wheel is kept
+ * (one char per spoke and per wheel turn, 0 for a prime) : after dividing by the wheel primes,
+ * a number is factored in O(log n) lookups.<br>
+ * Above, the small factors are found by trial division, then Pollard-Brent rho splits the cofactors
+ * which are not primes for Miller-Rabin, in Montgomery arithmetic.
+ */
+public class Factorization {
+
+	/** The smallest prime factor of a composite below 2^32 fits in a char. */
+	public static final long MAX_TABLE_LIMIT = 1L << 32;
+	private static final int TRIAL_LIMIT = 1 << 10;
+
+	final Wheel wheel;
+	final long limit;
+	final char[] smallestFactors;
+	final int[] trialPrimes = SegmentedSieve.smallPrimes(TRIAL_LIMIT);
+
+	public Factorization(Wheel wheel, long limit) {
+		if (limit > MAX_TABLE_LIMIT) {
+			throw new IllegalArgumentException("The limit of the table must be at most " + MAX_TABLE_LIMIT);
+		}
+		this.wheel = wheel;
+		this.limit = limit;
+		this.smallestFactors = new char[(int) WheelBitmap.bitCountFor(wheel, limit)];
+		fillSmallestFactors();
+	}
+
+	/**
+	 * For each prime p above the wheel primes (ascending, up to sqrt(limit)), marks p*m for the m >= p
+	 * sitting on a spoke, if no smaller prime marked it before. m steps through the gaps of the wheel.
+	 */
+	private void fillSmallestFactors() {
+		int modulus = wheel.modulus, nbSpokes = wheel.spokes.length;
+		for (int prime : SegmentedSieve.smallPrimes((int) Math.sqrt((double) limit) + 1)) {
+			if (prime <= wheel.getLargestPrime()) {
+				continue;
+			}
+			int spoke = wheel.spokeIndex[prime % modulus];
+			for (long multiple = (long) prime * prime ; multiple < limit ; ) {
+				int index = (int) wheel.bitOf(multiple);
+				if (smallestFactors[index] == 0) {
+					smallestFactors[index] = (char) prime;
+				}
+				multiple += (long) prime * wheel.gaps[spoke];
+				if (++spoke == nbSpokes) {
+					spoke = 0;
+				}
+			}
+		}
+	}
+
+	public long getLimit() {
+		return limit;
+	}
+
+	/**
+	 * @param n positive number
+	 * @return the prime factors of n in ascending order, with their multiplicity (empty for 1)
+	 */
+	public long[] factor(long n) {
+		if (n < 1) {
+			throw new IllegalArgumentException("Only positive numbers can be factored : " + n);
+		}
+		long[] factors = new long[64];
+		int count = 0;
+		for (int prime : n < limit ? wheel.primes : trialPrimes) {
+			while (n % prime == 0) {
+				factors[count++] = prime;
+				n /= prime;
+			}
+		}
+		if (n < limit) {
+			count = factorWithTable(n, factors, count);
+		} else if (n > 1) {
+			count = factorLarge(n, factors, count);
+		}
+		long[] result = Arrays.copyOf(factors, count);
+		Arrays.sort(result);
+		return result;
+	}
+
+	/**
+	 * Factors all the values, in parallel.
+	 */
+	public long[][] factor(long[] values) {
+		long[][] factors = new long[values.length][];
+		IntStream.range(0, values.length).parallel().forEach(i -> factors[i] = factor(values[i]));
+		return factors;
+	}
+
+	/**
+	 * n being coprime to the wheel and below the limit, follows the smallest factors of the table.
+	 */
+	private int factorWithTable(long n, long[] factors, int count) {
+		while (n > 1) {
+			char factor = smallestFactors[(int) wheel.bitOf(n)];
+			if (factor == 0) {
+				factors[count++] = n;
+				return count;
+			}
+			factors[count++] = factor;
+			n /= factor;
+		}
+		return count;
+	}
+
+	/**
+	 * n having no factor below TRIAL_LIMIT, splits it with Pollard-Brent until all the factors are primes.
+	 */
+	private int factorLarge(long n, long[] factors, int count) {
+		if (n < limit) {
+			return factorWithTable(n, factors, count);
+		}
+		if (isPrime(n)) {
+			factors[count++] = n;
+			return count;
+		}
+		long divisor = pollardBrent(n);
+		count = factorLarge(divisor, factors, count);
+		return factorLarge(n / divisor, factors, count);
+	}
+
+	private boolean isPrime(long n) {
+		return n < (long) TRIAL_LIMIT * TRIAL_LIMIT || PrimalityTest.millerRabin(n, PrimalityTest.BASES_64);
+	}
+
+	/**
+	 * Brent's variant of Pollard rho, with the gcd taken on products of 128 differences.
+	 * @param n odd composite, not a prime power of a prime below TRIAL_LIMIT
+	 * @return a non-trivial divisor of n
+	 */
+	static long pollardBrent(long n) {
+		Montgomery montgomery = new Montgomery(n);
+		int m = 128;
+		for (long c = 1 ; ; c++) {
+			long increment = montgomery.toMontgomery(c);
+			long y = montgomery.toMontgomery(2), x = y, ys = y, q = montgomery.one, g = 1;
+			for (long r = 1 ; g == 1 ; r <<= 1) {
+				x = y;
+				for (long i = 0 ; i < r ; i++) {
+					y = montgomery.addModulo(montgomery.multiply(y, y), increment);
+				}
+				for (long k = 0 ; k < r && g == 1 ; k += m) {
+					ys = y;
+					for (long i = 0 ; i < Math.min(m, r - k) ; i++) {
+						y = montgomery.addModulo(montgomery.multiply(y, y), increment);
+						q = montgomery.multiply(q, Math.abs(x - y));
+					}
+					g = gcd(q, n);
+				}
+			}
+			if (g == n) {
+				do {
+					ys = montgomery.addModulo(montgomery.multiply(ys, ys), increment);
+					g = gcd(Math.abs(x - ys), n);
+				} while (g == 1);
+			}
+			if (g != n) {
+				return g;
+			}
+		}
+	}
+
+	/**
+	 * Binary gcd of non-negative numbers.
+	 */
+	static long gcd(long a, long b) {
+		if (a == 0 || b == 0) {
+			return a | b;
+		}
+		int shift = Long.numberOfTrailingZeros(a | b);
+		a >>>= Long.numberOfTrailingZeros(a);
+		while (b != 0) {
+			b >>>= Long.numberOfTrailingZeros(b);
+			if (a > b) {
+				long t = a;
+				a = b;
+				b = t;
+			}
+			b -= a;
+		}
+		return a << shift;
+	}
+}
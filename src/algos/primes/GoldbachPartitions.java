@@ -0,0 +1,154 @@
+package algos.primes;
+
+/**
+ * Number of ways to write each even n <= limit as a sum of two primes, for all n at once.<br>
+ * With p = 2a + 1 and q = 2b + 1, p + q = 2 (a + b + 1) : the ordered counts are the square of the indicator
+ * of the odd primes (f[a] = 1 when 2a + 1 is prime), as a polynomial. It is squared with a number-theoretic transform
+ * modulo the prime 15 * 2^27 + 1, in O(limit log limit). A count is at most the number of odd numbers below the limit,
+ * lower than the modulus : the residues are the exact counts, without a second modulus.<br>
+ * The transform takes one int per number of the next power of two above the limit (512 MB for 10^8).
+ */
+public class GoldbachPartitions {
+
+	static final int MODULUS = 2013265921; // 15 * 2^27 + 1
+	/** Primitive root modulo MODULUS. */
+	static final int ROOT = 31;
+	static final int MAX_LOG_SIZE = 27;
+	public static final int MAX_LIMIT = 1 << MAX_LOG_SIZE;
+
+	final int limit;
+	/** counts[k] : ordered pairs of odd primes (p, q) with p + q = 2k + 2. */
+	final int[] counts;
+	/** Bit a : 2a + 1 is prime. */
+	final long[] oddPrimes;
+
+	private GoldbachPartitions(int limit, int[] counts, long[] oddPrimes) {
+		this.limit = limit;
+		this.counts = counts;
+		this.oddPrimes = oddPrimes;
+	}
+
+	/**
+	 * Counts of the even numbers up to limit, limit being at most MAX_LIMIT.
+	 */
+	public static GoldbachPartitions upTo(SegmentedSieve sieve, int limit) {
+		if (limit < 0 || limit > MAX_LIMIT) {
+			throw new IllegalArgumentException("The limit must be in [0, " + MAX_LIMIT + "] : " + limit);
+		}
+		// odd numbers 2a + 1 <= limit
+		int nbOdds = (limit + 1) / 2;
+		long[] oddPrimes = new long[(nbOdds + 63) >>> 6];
+		int size = 1;
+		while (size < 2 * nbOdds - 1) {
+			size <<= 1;
+		}
+		int[] values = new int[size];
+		sieve.stream(3, limit + 1L).forEach(p -> {
+			int a = (int) (p >>> 1);
+			values[a] = 1;
+			oddPrimes[a >>> 6] |= 1L << a;
+		});
+		transform(values, false);
+		for (int i = 0 ; i < size ; i++) {
+			values[i] = multiply(values[i], values[i]);
+		}
+		transform(values, true);
+		return new GoldbachPartitions(limit, values, oddPrimes);
+	}
+
+	public int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Number of ordered pairs of primes (p, q) with p + q = n, for an even n <= limit.
+	 */
+	public long orderedCount(int n) {
+		checkEven(n);
+		if (n < 6) {
+			return n == 4 ? 1 : 0; // 2 + 2
+		}
+		return counts[n / 2 - 1];
+	}
+
+	/**
+	 * Number of partitions n = p + q with p <= q, for an even n <= limit.
+	 */
+	public long count(int n) {
+		checkEven(n);
+		if (n < 6) {
+			return n == 4 ? 1 : 0;
+		}
+		// the pair (n/2, n/2) is counted once in the ordered pairs, the others twice
+		int half = n / 2;
+		boolean halfIsOddPrime = (half & 1) != 0 && (oddPrimes[half >>> 7] & (1L << (half >>> 1))) != 0;
+		return (counts[half - 1] + (halfIsOddPrime ? 1 : 0)) / 2;
+	}
+
+	private void checkEven(int n) {
+		if (n < 0 || n > limit || (n & 1) != 0) {
+			throw new IllegalArgumentException(n + " is not an even number of [0, " + limit + "]");
+		}
+	}
+
+	/**
+	 * In place transform of the values, whose length is a power of two up to 2^MAX_LOG_SIZE
+	 * (iterative Cooley-Tukey, after the bit-reversal permutation).
+	 * @param inverse true for the inverse transform, divided by the length
+	 */
+	static void transform(int[] values, boolean inverse) {
+		int size = values.length;
+		for (int i = 1, j = 0 ; i < size ; i++) {
+			int bit = size >>> 1;
+			for ( ; (j & bit) != 0 ; bit >>>= 1) {
+				j ^= bit;
+			}
+			j ^= bit;
+			if (i < j) {
+				int t = values[i];
+				values[i] = values[j];
+				values[j] = t;
+			}
+		}
+		for (int length = 2 ; length <= size ; length <<= 1) {
+			// primitive length-th root of unity
+			int root = power(ROOT, (MODULUS - 1) / length);
+			if (inverse) {
+				root = power(root, MODULUS - 2);
+			}
+			int half = length >>> 1;
+			for (int start = 0 ; start < size ; start += length) {
+				int w = 1;
+				for (int j = start ; j < start + half ; j++) {
+					int u = values[j];
+					int v = multiply(values[j + half], w);
+					int sum = u + v - MODULUS;
+					values[j] = sum < 0 ? sum + MODULUS : sum;
+					int difference = u - v;
+					values[j + half] = difference < 0 ? difference + MODULUS : difference;
+					w = multiply(w, root);
+				}
+			}
+		}
+		if (inverse) {
+			int sizeInverse = power(size, MODULUS - 2);
+			for (int i = 0 ; i < size ; i++) {
+				values[i] = multiply(values[i], sizeInverse);
+			}
+		}
+	}
+
+	private static int multiply(int x, int y) {
+		return (int) ((long) x * y % MODULUS);
+	}
+
+	private static int power(int base, int exponent) {
+		int result = 1;
+		for (int b = base ; exponent > 0 ; exponent >>>= 1, b = multiply(b, b)) {
+			if ((exponent & 1) != 0) {
+				result = multiply(result, b);
+			}
+		}
+		return result;
+	}
+}
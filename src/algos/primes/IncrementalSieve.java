@@ -0,0 +1,133 @@
+package algos.primes;
+
+import java.util.Arrays;
+import java.util.PrimitiveIterator;
+
+/**
+ * Incremental sieve generating the primes one after the other, without any upper bound.<br>
+ * The candidates step through the gaps of the wheel. The next composite of each base prime p
+ * (a multiple p*m with m on a spoke) is kept in a primitive binary min-heap : a candidate equal to
+ * the top of the heap is composite, and the top moves to p*(m + gap). A base prime only enters the heap
+ * when the candidates reach its square, the base primes coming from a second incremental sieve
+ * (created on first need, the first base prime being the first candidate), so the heap holds pi(sqrt(n)) entries : O(log pi(sqrt(n))) per crossing, no boxing.
+ */
+public class IncrementalSieve implements PrimitiveIterator.OfLong {
+
+	final Wheel wheel;
+	private int nextWheelPrime;
+	private long candidate;
+	private int candidateSpoke;
+
+	private IncrementalSieve basePrimes;
+	private long nextBasePrime;
+	private long nextSquare;
+
+	// Min-heap of the next composites : key, base prime, spoke index of the multiplier
+	private long[] keys = new long[16];
+	private long[] primes = new long[16];
+	private int[] spokes = new int[16];
+	private int size;
+
+	public IncrementalSieve(Wheel wheel) {
+		this.wheel = wheel;
+		this.candidateSpoke = 1 % wheel.spokes.length;
+		this.candidate = wheel.spokes.length > 1 ? wheel.spokes[1] : wheel.modulus + 1;
+		// The first candidate is the first prime after the wheel : it is the first base prime
+		this.nextBasePrime = candidate;
+		this.nextSquare = candidate * candidate;
+	}
+
+	@Override
+	public boolean hasNext() {
+		return true;
+	}
+
+	@Override
+	public long nextLong() {
+		if (nextWheelPrime < wheel.primes.length) {
+			return wheel.primes[nextWheelPrime++];
+		}
+		while (true) {
+			long n = candidate;
+			candidate += wheel.gaps[candidateSpoke];
+			if (++candidateSpoke == wheel.spokes.length) {
+				candidateSpoke = 0;
+			}
+			if (n == nextSquare) {
+				// p*p is crossed off here : the heap starts at the next multiple p*m on a spoke
+				int spoke = wheel.spokeIndex[(int) (nextBasePrime % wheel.modulus)];
+				push(n + nextBasePrime * wheel.gaps[spoke], nextBasePrime, spoke + 1 == wheel.spokes.length ? 0 : spoke + 1);
+				pullNextBasePrime();
+			} else if (size > 0 && keys[0] == n) {
+				do {
+					int spoke = spokes[0];
+					keys[0] += primes[0] * wheel.gaps[spoke];
+					spokes[0] = spoke + 1 == wheel.spokes.length ? 0 : spoke + 1;
+					siftDown();
+				} while (keys[0] == n);
+			} else {
+				return n;
+			}
+		}
+	}
+
+	/**
+	 * Takes the next base prime from the inner sieve, created when the second base prime is needed
+	 * (so that the recursion stops : each level only starts its own inner sieve at the square of its first base prime).
+	 */
+	private void pullNextBasePrime() {
+		if (basePrimes == null) {
+			basePrimes = new IncrementalSieve(wheel);
+		}
+		long previous = nextBasePrime;
+		do {
+			nextBasePrime = basePrimes.nextLong();
+		} while (nextBasePrime <= previous);
+		nextSquare = nextBasePrime * nextBasePrime;
+	}
+
+	private void push(long key, long prime, int spoke) {
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, 2 * size);
+			primes = Arrays.copyOf(primes, 2 * size);
+			spokes = Arrays.copyOf(spokes, 2 * size);
+		}
+		int i = size++;
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (keys[parent] <= key) {
+				break;
+			}
+			set(i, keys[parent], primes[parent], spokes[parent]);
+			i = parent;
+		}
+		set(i, key, prime, spoke);
+	}
+
+	private void siftDown() {
+		long key = keys[0], prime = primes[0];
+		int spoke = spokes[0];
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && keys[child + 1] < keys[child]) {
+				child++;
+			}
+			if (keys[child] >= key) {
+				break;
+			}
+			set(i, keys[child], primes[child], spokes[child]);
+			i = child;
+		}
+		set(i, key, prime, spoke);
+	}
+
+	private void set(int i, long key, long prime, int spoke) {
+		keys[i] = key;
+		primes[i] = prime;
+		spokes[i] = spoke;
+	}
+}
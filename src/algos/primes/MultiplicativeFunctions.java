@@ -0,0 +1,310 @@
+package algos.primes;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+/**
+ * Tables of multiplicative functions : Euler's totient phi, Moebius mu, number of divisors d and sum of divisors sigma.<br>
+ * {@link #tables} fills the requested tables for 0 <= n < limit in one pass of a linear sieve (each composite is
+ * reached once, from its smallest prime factor). {@link #segments} gives the same values by segments of
+ * {@link SegmentedSieve#SEGMENT_SPAN} numbers, for ranges which do not hold in the heap.<br>
+ * The value stored for n = 0 is 0.
+ */
+public class MultiplicativeFunctions {
+
+	public enum Function { TOTIENT, MOBIUS, DIVISOR_COUNT, DIVISOR_SUM }
+
+	/** sigma(n) < 8n below this bound, so that it holds in a long. */
+	public static final long MAX_HI = 1_000_000_000_000_000_000L;
+
+	final int limit;
+	int[] totient;
+	int[] mobius;
+	int[] divisorCount;
+	long[] divisorSum;
+
+	private MultiplicativeFunctions(int limit) {
+		this.limit = limit;
+	}
+
+	/**
+	 * Linear sieve filling the tables of the requested functions for n < limit.
+	 */
+	public static MultiplicativeFunctions tables(int limit, Function... functions) {
+		if (limit < 0) {
+			throw new IllegalArgumentException("Negative limit : " + limit);
+		}
+		Set<Function> requested = asSet(functions);
+		MultiplicativeFunctions tables = new MultiplicativeFunctions(limit);
+		int[] totient = tables.totient = requested.contains(Function.TOTIENT) ? new int[limit] : null;
+		int[] mobius = tables.mobius = requested.contains(Function.MOBIUS) ? new int[limit] : null;
+		int[] divisorCount = tables.divisorCount = requested.contains(Function.DIVISOR_COUNT) ? new int[limit] : null;
+		long[] divisorSum = tables.divisorSum = requested.contains(Function.DIVISOR_SUM) ? new long[limit] : null;
+		// Power of the smallest prime factor of n in n : needed to split n for d and sigma
+		int[] smallestPower = divisorCount != null || divisorSum != null ? new int[limit] : null;
+		if (limit > 1) {
+			tables.set(1, 1, 1, 1, 1);
+		}
+		long[] composite = new long[(limit >>> 6) + 1];
+		int[] primes = new int[limit < 3 ? 1 : (int) (1.25506 * limit / Math.log(limit)) + 1]; // upper bound of pi(limit)
+		int nbPrimes = 0;
+		for (int i = 2 ; i < limit ; i++) {
+			if ((composite[i >>> 6] & 1L << i) == 0) {
+				primes[nbPrimes++] = i;
+				tables.set(i, i - 1, -1, 2, i + 1L);
+				if (smallestPower != null) {
+					smallestPower[i] = i;
+				}
+			}
+			for (int j = 0 ; j < nbPrimes ; j++) {
+				int p = primes[j];
+				long product = (long) i * p;
+				if (product >= limit) {
+					break;
+				}
+				int n = (int) product;
+				composite[n >>> 6] |= 1L << n;
+				if (i % p != 0) {
+					// p is smaller than every prime factor of i : f(n) = f(i) * f(p)
+					if (totient != null) {
+						totient[n] = totient[i] * (p - 1);
+					}
+					if (mobius != null) {
+						mobius[n] = -mobius[i];
+					}
+					if (smallestPower != null) {
+						smallestPower[n] = p;
+						if (divisorCount != null) {
+							divisorCount[n] = 2 * divisorCount[i];
+						}
+						if (divisorSum != null) {
+							divisorSum[n] = divisorSum[i] * (p + 1);
+						}
+					}
+					continue;
+				}
+				// p is the smallest prime factor of i : n = rest * p^(k+1)
+				if (totient != null) {
+					totient[n] = totient[i] * p;
+				}
+				if (mobius != null) {
+					mobius[n] = 0;
+				}
+				if (smallestPower != null) {
+					int power = smallestPower[n] = smallestPower[i] * p;
+					int rest = i / smallestPower[i];
+					if (divisorCount != null) {
+						divisorCount[n] = rest == 1 ? divisorCount[i] + 1 : divisorCount[rest] * divisorCount[power];
+					}
+					if (divisorSum != null) {
+						divisorSum[n] = rest == 1 ? divisorSum[i] * p + 1 : divisorSum[rest] * divisorSum[power];
+					}
+				}
+				break;
+			}
+		}
+		return tables;
+	}
+
+	private void set(int n, int phi, int mu, int d, long sigma) {
+		if (totient != null) {
+			totient[n] = phi;
+		}
+		if (mobius != null) {
+			mobius[n] = mu;
+		}
+		if (divisorCount != null) {
+			divisorCount[n] = d;
+		}
+		if (divisorSum != null) {
+			divisorSum[n] = sigma;
+		}
+	}
+
+	private static Set<Function> asSet(Function... functions) {
+		if (functions.length == 0) {
+			throw new IllegalArgumentException("No function requested");
+		}
+		Set<Function> set = EnumSet.noneOf(Function.class);
+		for (Function function : functions) {
+			set.add(function);
+		}
+		return set;
+	}
+
+	private static <T> T checkComputed(T table, Function function) {
+		if (table == null) {
+			throw new IllegalStateException(function + " was not requested");
+		}
+		return table;
+	}
+
+	public int getLimit() {
+		return limit;
+	}
+
+	/** phi(n) at index n (the table itself, not a copy). */
+	public int[] getTotient() {
+		return checkComputed(totient, Function.TOTIENT);
+	}
+
+	public int[] getMobius() {
+		return checkComputed(mobius, Function.MOBIUS);
+	}
+
+	public int[] getDivisorCount() {
+		return checkComputed(divisorCount, Function.DIVISOR_COUNT);
+	}
+
+	public long[] getDivisorSum() {
+		return checkComputed(divisorSum, Function.DIVISOR_SUM);
+	}
+
+	/**
+	 * Values of the requested functions over [lo, hi), one segment after the other : only one segment
+	 * and the base primes up to sqrt(hi) are in memory at a time (the stream can be made parallel).
+	 */
+	public static Stream<Segment> segments(long lo, long hi, Function... functions) {
+		if (lo < 0 || hi > MAX_HI) {
+			throw new IllegalArgumentException("Range outside of [0, " + MAX_HI + "] : [" + lo + ", " + hi + ")");
+		}
+		Set<Function> requested = asSet(functions);
+		if (lo >= hi) {
+			return Stream.empty();
+		}
+		int[] basePrimes = SegmentedSieve.basePrimesFor(hi);
+		long span = SegmentedSieve.SEGMENT_SPAN;
+		long nbSegments = (hi - lo + span - 1) / span;
+		return LongStream.range(0, nbSegments)
+				.mapToObj(i -> new Segment(lo + i * span, Math.min(lo + (i + 1) * span, hi), basePrimes, requested));
+	}
+
+	/**
+	 * Values of the requested functions for low <= n < high, at index n - low.<br>
+	 * Each number is divided by the powers of its prime factors up to sqrt(high) : what remains is 1 or a prime.
+	 */
+	public static final class Segment {
+
+		final long low;
+		final long high;
+		long[] totient;
+		int[] mobius;
+		int[] divisorCount;
+		long[] divisorSum;
+
+		Segment(long low, long high, int[] basePrimes, Set<Function> requested) {
+			this.low = low;
+			this.high = high;
+			int length = (int) (high - low);
+			long[] remaining = new long[length];
+			for (int i = 0 ; i < length ; i++) {
+				remaining[i] = low + i;
+			}
+			totient = requested.contains(Function.TOTIENT) ? filled(new long[length], 1) : null;
+			mobius = requested.contains(Function.MOBIUS) ? filled(new int[length], 1) : null;
+			divisorCount = requested.contains(Function.DIVISOR_COUNT) ? filled(new int[length], 1) : null;
+			divisorSum = requested.contains(Function.DIVISOR_SUM) ? filled(new long[length], 1) : null;
+			for (int p : basePrimes) {
+				if ((long) p * p >= high) {
+					break;
+				}
+				long start = (low + p - 1) / p * p;
+				if (start == 0) {
+					start = p;
+				}
+				for (long m = start ; m < high ; m += p) {
+					int i = (int) (m - low);
+					long rest = remaining[i] / p;
+					int exponent = 0;
+					long power = 1;
+					long powerSum = 1;
+					do {
+						remaining[i] = rest;
+						exponent++;
+						power *= p;
+						powerSum += power;
+						rest /= p;
+					} while (rest * p == remaining[i]);
+					apply(i, p, exponent, power, powerSum);
+				}
+			}
+			for (int i = 0 ; i < length ; i++) {
+				long prime = remaining[i];
+				if (prime > 1) {
+					apply(i, prime, 1, prime, prime + 1);
+				}
+			}
+			if (low == 0) {
+				set0();
+			}
+		}
+
+		private void apply(int i, long p, int exponent, long power, long powerSum) {
+			if (totient != null) {
+				totient[i] *= power / p * (p - 1);
+			}
+			if (mobius != null) {
+				mobius[i] = exponent > 1 ? 0 : -mobius[i];
+			}
+			if (divisorCount != null) {
+				divisorCount[i] *= exponent + 1;
+			}
+			if (divisorSum != null) {
+				divisorSum[i] *= powerSum;
+			}
+		}
+
+		private void set0() {
+			if (totient != null) {
+				totient[0] = 0;
+			}
+			if (mobius != null) {
+				mobius[0] = 0;
+			}
+			if (divisorCount != null) {
+				divisorCount[0] = 0;
+			}
+			if (divisorSum != null) {
+				divisorSum[0] = 0;
+			}
+		}
+
+		private static long[] filled(long[] array, long value) {
+			Arrays.fill(array, value);
+			return array;
+		}
+
+		private static int[] filled(int[] array, int value) {
+			Arrays.fill(array, value);
+			return array;
+		}
+
+		public long getLow() {
+			return low;
+		}
+
+		public long getHigh() {
+			return high;
+		}
+
+		/** phi(n) at index n - low. */
+		public long[] getTotient() {
+			return checkComputed(totient, Function.TOTIENT);
+		}
+
+		public int[] getMobius() {
+			return checkComputed(mobius, Function.MOBIUS);
+		}
+
+		public int[] getDivisorCount() {
+			return checkComputed(divisorCount, Function.DIVISOR_COUNT);
+		}
+
+		public long[] getDivisorSum() {
+			return checkComputed(divisorSum, Function.DIVISOR_SUM);
+		}
+	}
+}
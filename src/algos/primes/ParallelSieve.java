@@ -0,0 +1,161 @@
+package algos.primes;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+/**
+ * Parallel version of the {@link SegmentedSieve} : the range is split into independent segments
+ * which are sieved by the threads of a ForkJoinPool, all of them reading the same table of base primes.<br>
+ * The stream goes by batches of BATCH_SEGMENTS_PER_THREAD segments per thread of the pool : the segments of a batch
+ * are sieved and decoded by the workers, the batch being taken only when the stream reaches it.
+ * So the memory stays at one batch of segments and of their primes, whatever the width of the range.
+ */
+public class ParallelSieve implements PrimeSieve {
+
+	/** Segments of a batch per thread of the pool : enough for the workers to balance their load. */
+	private static final int BATCH_SEGMENTS_PER_THREAD = 4;
+
+	final SegmentedSieve sieve;
+	final ForkJoinPool pool;
+
+	public ParallelSieve(SegmentedSieve sieve) {
+		this(sieve, ForkJoinPool.commonPool());
+	}
+
+	public ParallelSieve(SegmentedSieve sieve, ForkJoinPool pool) {
+		this.sieve = sieve;
+		this.pool = pool;
+	}
+
+	private static void checkHi(long hi) {
+		if (hi > RangeSieve.MAX_HI) {
+			throw new IllegalArgumentException("hi must be at most " + RangeSieve.MAX_HI);
+		}
+	}
+
+	private static long firstLow(long lo) {
+		return Math.max(lo, 0) / SegmentedSieve.SEGMENT_SPAN * SegmentedSieve.SEGMENT_SPAN;
+	}
+
+	/**
+	 * Number of segments covering [lo, hi) from firstLow, 0 if the range is empty.
+	 */
+	private static long nbSegments(long firstLow, long lo, long hi) {
+		if (Math.max(lo, 0) >= hi) {
+			return 0;
+		}
+		return (hi - firstLow + SegmentedSieve.SEGMENT_SPAN - 1) / SegmentedSieve.SEGMENT_SPAN;
+	}
+
+	/**
+	 * Primes strictly lower than limit, in ascending order.
+	 */
+	@Override
+	public LongStream stream(long limit) {
+		return primesBetween(0, limit);
+	}
+
+	/**
+	 * Primes of [lo, hi) in ascending order, sieved and decoded by the workers one batch at a time.
+	 */
+	@Override
+	public LongStream primesBetween(long lo, long hi) {
+		checkHi(hi);
+		long firstLow = firstLow(lo);
+		long nbSegments = nbSegments(firstLow, lo, hi);
+		if (nbSegments == 0) {
+			return LongStream.empty();
+		}
+		int[] basePrimes = SegmentedSieve.basePrimesFor(hi);
+		int batchSegments = BATCH_SEGMENTS_PER_THREAD * pool.getParallelism();
+		long nbBatches = (nbSegments + batchSegments - 1) / batchSegments;
+		return LongStream.range(0, nbBatches)
+				.mapToObj(batch -> {
+					long first = batch * batchSegments;
+					long[][] primes = new long[(int) Math.min(batchSegments, nbSegments - first)][];
+					pool.invoke(new SegmentsTask(primes, basePrimes, firstLow + first * SegmentedSieve.SEGMENT_SPAN,
+							lo, hi, 0, primes.length));
+					return primes;
+				})
+				.flatMap(Arrays::stream)
+				.flatMapToLong(Arrays::stream);
+	}
+
+	/**
+	 * Primes strictly lower than limit (which must be at most Integer.MAX_VALUE), in ascending order.
+	 */
+	public IntStream intStream(long limit) {
+		if (limit > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Primes above " + Integer.MAX_VALUE + " do not fit in an int");
+		}
+		return stream(limit).mapToInt(i -> (int) i);
+	}
+
+	/**
+	 * Number of primes strictly lower than limit, counted without decoding the bitmaps.
+	 */
+	public long count(long limit) {
+		return count(0, limit);
+	}
+
+	/**
+	 * Number of primes within [lo, hi), counted without decoding the bitmaps : each worker keeps one segment at a time.
+	 */
+	@Override
+	public long count(long lo, long hi) {
+		checkHi(hi);
+		long firstLow = firstLow(lo);
+		long nbSegments = nbSegments(firstLow, lo, hi);
+		if (nbSegments == 0) {
+			return 0;
+		}
+		int[] basePrimes = SegmentedSieve.basePrimesFor(hi);
+		return pool.submit(() -> LongStream.range(0, nbSegments).parallel()
+				.map(i -> {
+					long low = firstLow + i * SegmentedSieve.SEGMENT_SPAN;
+					long[] bits = new long[SegmentedSieve.SEGMENT_BITS / 64];
+					sieve.sieveSegment(low, bits, basePrimes);
+					return SegmentedSieve.countPrimes(low, bits, hi) - SegmentedSieve.countPrimes(low, bits, Math.max(lo, low));
+				})
+				.sum()).join();
+	}
+
+	/**
+	 * Splits the segments in halves until one segment remains, which is sieved and decoded by the current worker.
+	 */
+	class SegmentsTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		/** Primes of each segment within [lo, hi), segment i starting at firstLow + i*SEGMENT_SPAN. */
+		final long[][] primes;
+		final int[] basePrimes;
+		final long firstLow;
+		final long lo, hi;
+		final int from, to;
+
+		SegmentsTask(long[][] primes, int[] basePrimes, long firstLow, long lo, long hi, int from, int to) {
+			this.primes = primes;
+			this.basePrimes = basePrimes;
+			this.firstLow = firstLow;
+			this.lo = lo;
+			this.hi = hi;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from == 1) {
+				primes[from] = sieve.primesOfSegment(firstLow + from * SegmentedSieve.SEGMENT_SPAN, basePrimes, lo, hi);
+			} else if (to > from) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new SegmentsTask(primes, basePrimes, firstLow, lo, hi, from, middle),
+						new SegmentsTask(primes, basePrimes, firstLow, lo, hi, middle, to));
+			}
+		}
+	}
+}
@@ -0,0 +1,182 @@
+package algos.primes;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Deterministic primality test for 64-bit numbers.<br>
+ * Numbers below the limit of the table are read from the sieve. Above, the number is divided by the
+ * first primes, then goes through a Miller-Rabin test with a base set known to have no strong pseudoprime
+ * below 2^64, the modular products being Montgomery multiplications. Nothing is allocated per test.
+ */
+public class PrimalityTest {
+
+	/** Trial division by 3..23 and 29..47 goes through one 64-bit remainder for each product. */
+	private static final int[] TRIAL_PRIMES_1 = {3, 5, 7, 11, 13, 17, 19, 23};
+	private static final long TRIAL_PRODUCT_1 = 3L * 5 * 7 * 11 * 13 * 17 * 19 * 23;
+	private static final int[] TRIAL_PRIMES_2 = {29, 31, 37, 41, 43, 47};
+	private static final long TRIAL_PRODUCT_2 = 29L * 31 * 37 * 41 * 43 * 47;
+	private static final long[] BASES_32 = {2, 7, 61};
+	static final long[] BASES_64 = {2, 325, 9375, 28178, 450775, 9780504, 1795265022};
+	private static final long MASK_32 = 0xFFFFFFFFL;
+	private static final MethodHandle MULTIPLY_HIGH = findMultiplyHigh();
+
+	final WheelBitmap table;
+
+	public PrimalityTest(WheelBitmap table) {
+		this.table = table;
+	}
+
+	public boolean isPrime(long n) {
+		if (n < table.getLimit()) {
+			return n >= 0 && table.isPrime(n);
+		}
+		if ((n & 1) == 0 || hasFactorIn(n % TRIAL_PRODUCT_1, TRIAL_PRIMES_1)
+				|| hasFactorIn(n % TRIAL_PRODUCT_2, TRIAL_PRIMES_2)) {
+			return false;
+		}
+		return millerRabin(n, n < (1L << 32) ? BASES_32 : BASES_64);
+	}
+
+	private static boolean hasFactorIn(long remainder, int[] primes) {
+		for (int prime : primes) {
+			if (remainder % prime == 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Tests all the values : results[i] is set to the primality of values[i].
+	 */
+	public void isPrime(long[] values, boolean[] results) {
+		for (int i = 0 ; i < values.length ; i++) {
+			results[i] = isPrime(values[i]);
+		}
+	}
+
+	/**
+	 * Strong probable prime test of the odd number n > 2 for each base.
+	 */
+	static boolean millerRabin(long n, long[] bases) {
+		long d = n - 1;
+		int s = Long.numberOfTrailingZeros(d);
+		d >>>= s;
+		Montgomery montgomery = new Montgomery(n);
+		long one = montgomery.one, minusOne = n - one;
+		for (long base : bases) {
+			long a = base % n;
+			if (a == 0) {
+				continue;
+			}
+			long x = montgomery.pow(montgomery.toMontgomery(a), d);
+			if (x == one || x == minusOne) {
+				continue;
+			}
+			boolean composite = true;
+			for (int r = 1 ; r < s && composite ; r++) {
+				x = montgomery.multiply(x, x);
+				composite = x != minusOne;
+			}
+			if (composite) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * High 64 bits of the unsigned 128-bit product x*y, for y < 2^63.<br>
+	 * Math.multiplyHigh (Java 9+, intrinsified) is used when the runtime has it, through a constant
+	 * MethodHandle that the JIT inlines.
+	 */
+	static long multiplyHighUnsigned(long x, long y) {
+		if (MULTIPLY_HIGH == null) {
+			return multiplyHighPortable(x, y);
+		}
+		try {
+			return (long) MULTIPLY_HIGH.invokeExact(x, y) + ((x >> 63) & y);
+		} catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static MethodHandle findMultiplyHigh() {
+		try {
+			return MethodHandles.lookup().findStatic(Math.class, "multiplyHigh",
+					MethodType.methodType(long.class, long.class, long.class));
+		} catch (NoSuchMethodException | IllegalAccessException e) {
+			return null;
+		}
+	}
+
+	static long multiplyHighPortable(long x, long y) {
+		long x0 = x & MASK_32, x1 = x >>> 32, y0 = y & MASK_32, y1 = y >>> 32;
+		long p01 = x0 * y1, p10 = x1 * y0;
+		long middle = ((x0 * y0) >>> 32) + (p01 & MASK_32) + (p10 & MASK_32);
+		return x1 * y1 + (p01 >>> 32) + (p10 >>> 32) + (middle >>> 32);
+	}
+
+	/**
+	 * Montgomery arithmetic modulo an odd n < 2^63, with R = 2^64.
+	 * Being a small final object used in one method, it is scalar-replaced by the JIT.
+	 */
+	static final class Montgomery {
+
+		final long n;
+		/** n^-1 modulo 2^64. */
+		final long inverse;
+		/** R modulo n, the Montgomery form of 1. */
+		final long one;
+		/** R^2 modulo n. */
+		final long r2;
+
+		Montgomery(long n) {
+			this.n = n;
+			long inv = n; // correct on 3 bits, each Newton step doubles the number of correct bits
+			for (int i = 0 ; i < 5 ; i++) {
+				inv *= 2 - n * inv;
+			}
+			inverse = inv;
+			one = Long.remainderUnsigned(-n, n);
+			long r = one;
+			for (int i = 0 ; i < 64 ; i++) {
+				r = addModulo(r, r);
+			}
+			r2 = r;
+		}
+
+		long addModulo(long a, long b) {
+			long sum = a + b; // a, b < n < 2^63 : no unsigned overflow
+			return Long.compareUnsigned(sum, n) >= 0 ? sum - n : sum;
+		}
+
+		/**
+		 * a*b*R^-1 modulo n (REDC of the 128-bit product).
+		 */
+		long multiply(long a, long b) {
+			long high = multiplyHighUnsigned(a, b);
+			long m = a * b * inverse;
+			long mn = multiplyHighUnsigned(m, n);
+			return high >= mn ? high - mn : high - mn + n;
+		}
+
+		long toMontgomery(long a) {
+			return multiply(a, r2);
+		}
+
+		long pow(long base, long exponent) {
+			long result = one;
+			while (exponent != 0) {
+				if ((exponent & 1) != 0) {
+					result = multiply(result, base);
+				}
+				base = multiply(base, base);
+				exponent >>>= 1;
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,267 @@
+package algos.primes;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.function.LongConsumer;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Prime table shared by all the threads, growing by segments of {@link SegmentedSieve#SEGMENT_SPAN} numbers.<br>
+ * The sieved segments are published in an immutable snapshot through a volatile field : a lookup below the
+ * high-water mark only reads the snapshot, without any lock. A lookup above it extends the table, one thread
+ * at a time (the others wait for the extension they need, then share it). The table at least doubles
+ * (by MAX_GROWTH_SEGMENTS at most) on each extension, so that a stream reaching it segment after segment stays linear.<br>
+ * The table never goes beyond maxLimit (2^31 by default, 128 MB), and only grows by one extension for a lookup :
+ * the numbers further away are answered without the table (Miller-Rabin, or a {@link RangeSieve} for the counts,
+ * segments sieved on the fly for the streams).
+ */
+public class PrimeCache {
+
+	static final int MAX_GROWTH_SEGMENTS = 256;
+	static final long DEFAULT_MAX_LIMIT = 1L << 31;
+
+	final SegmentedSieve sieve;
+	final long maxSegments;
+	private volatile Snapshot snapshot = new Snapshot(new long[0][], new long[] {0});
+
+	public PrimeCache(SegmentedSieve sieve) {
+		this(sieve, DEFAULT_MAX_LIMIT);
+	}
+
+	/**
+	 * @param maxLimit the table never covers more than the numbers below this (rounded up to a segment)
+	 */
+	public PrimeCache(SegmentedSieve sieve, long maxLimit) {
+		if (maxLimit < 0 || segmentsFor(maxLimit) > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException("The cache cannot cover the numbers below " + maxLimit);
+		}
+		this.sieve = sieve;
+		this.maxSegments = segmentsFor(maxLimit);
+	}
+
+	/**
+	 * Sieved segments (segment i starts at i * SEGMENT_SPAN) and number of primes below each of them.
+	 */
+	private static final class Snapshot {
+		final long[][] segments;
+		final long[] countBefore;
+
+		Snapshot(long[][] segments, long[] countBefore) {
+			this.segments = segments;
+			this.countBefore = countBefore;
+		}
+	}
+
+	/**
+	 * Snapshot holding at least nbSegments segments, the table being extended if needed.
+	 */
+	private Snapshot snapshotWith(long nbSegments) {
+		Snapshot current = snapshot;
+		return current.segments.length >= nbSegments ? current : extend(nbSegments);
+	}
+
+	/**
+	 * Snapshot holding the segment, if it is in the table or one extension away from it (below the cap), otherwise null.
+	 */
+	private Snapshot snapshotNear(long segment) {
+		Snapshot current = snapshot;
+		int length = current.segments.length;
+		if (segment < length) {
+			return current;
+		}
+		if (segment >= maxSegments || segment >= length + Math.max(1, Math.min(length, MAX_GROWTH_SEGMENTS))) {
+			return null;
+		}
+		return extend(segment + 1);
+	}
+
+	private synchronized Snapshot extend(long nbSegments) {
+		Snapshot current = snapshot;
+		int length = current.segments.length;
+		if (length >= nbSegments) {
+			return current;
+		}
+		if (nbSegments > maxSegments) {
+			throw new IllegalArgumentException("The cache cannot hold more than " + maxSegments + " segments : " + nbSegments);
+		}
+		int newLength = (int) Math.min(maxSegments,
+				Math.max(nbSegments, length + Math.max(1, Math.min(length, MAX_GROWTH_SEGMENTS))));
+		int[] basePrimes = SegmentedSieve.basePrimesFor(newLength * SegmentedSieve.SEGMENT_SPAN);
+		long[][] segments = Arrays.copyOf(current.segments, newLength);
+		long[] countBefore = Arrays.copyOf(current.countBefore, newLength + 1);
+		for (int i = length ; i < newLength ; i++) {
+			long low = i * SegmentedSieve.SEGMENT_SPAN;
+			long[] bits = new long[SegmentedSieve.SEGMENT_BITS / 64];
+			sieve.sieveSegment(low, bits, basePrimes);
+			segments[i] = bits;
+			countBefore[i + 1] = countBefore[i] + SegmentedSieve.countPrimes(low, bits, Long.MAX_VALUE);
+		}
+		snapshot = new Snapshot(segments, countBefore);
+		return snapshot;
+	}
+
+	/**
+	 * Numbers below the high-water mark are looked up without any lock.
+	 */
+	public long getLimit() {
+		return snapshot.segments.length * SegmentedSieve.SEGMENT_SPAN;
+	}
+
+	/**
+	 * Extends the table so that it covers the numbers strictly lower than limit, limit being at most the cap.
+	 */
+	public void ensure(long limit) {
+		snapshotWith(segmentsFor(limit));
+	}
+
+	private static long segmentsFor(long limit) {
+		return limit <= 0 ? 0 : (limit - 1) / SegmentedSieve.SEGMENT_SPAN + 1;
+	}
+
+	public boolean isPrime(long n) {
+		if (n < 3) {
+			return n == 2;
+		}
+		if ((n & 1) == 0) {
+			return false;
+		}
+		long segment = n / SegmentedSieve.SEGMENT_SPAN;
+		Snapshot current = snapshotNear(segment);
+		if (current == null) {
+			return PrimalityTest.millerRabin(n, PrimalityTest.BASES_64);
+		}
+		long[] bits = current.segments[(int) segment];
+		long bit = (n - segment * SegmentedSieve.SEGMENT_SPAN) >>> 1;
+		return (bits[(int) (bit >>> 6)] & 1L << bit) != 0;
+	}
+
+	/**
+	 * Number of primes strictly lower than hi.
+	 */
+	public long count(long hi) {
+		if (hi <= 2) {
+			return 0;
+		}
+		Snapshot current = snapshotNear(segmentsFor(hi) - 1);
+		if (current == null) {
+			// the table up to its limit, then the rest sieved without keeping it
+			current = snapshot;
+			long limit = current.segments.length * SegmentedSieve.SEGMENT_SPAN;
+			return current.countBefore[current.segments.length] + new RangeSieve(sieve, limit, hi).count();
+		}
+		int segment = (int) (hi / SegmentedSieve.SEGMENT_SPAN);
+		long count = current.countBefore[segment];
+		if (segment < current.segments.length) {
+			count += SegmentedSieve.countPrimes(segment * SegmentedSieve.SEGMENT_SPAN, current.segments[segment], hi);
+		}
+		return count;
+	}
+
+	/**
+	 * Primes of [lo, hi), read from the table which is extended when the stream reaches its end
+	 * (hi = Long.MAX_VALUE for an endless stream), the segments beyond the cap being sieved on the fly.
+	 * A bounded stream splits by segments when made parallel.
+	 */
+	public LongStream stream(long lo, long hi) {
+		return StreamSupport.longStream(new CacheSpliterator(Math.max(lo, 0), hi), false);
+	}
+
+	private final class CacheSpliterator implements Spliterator.OfLong {
+
+		private static final int MIN_SPLIT_SEGMENTS = 2;
+
+		long lo;
+		final long hi;
+		long nextSegment;
+		long[] buffer = new long[0];
+		int position;
+		/** Primes to sieve the segments outside the table, up to the square root of baseLimit. */
+		int[] basePrimes = new int[0];
+		long baseLimit;
+
+		CacheSpliterator(long lo, long hi) {
+			this.lo = lo;
+			this.hi = hi;
+			this.nextSegment = lo / SegmentedSieve.SEGMENT_SPAN;
+		}
+
+		private long endSegment() {
+			return segmentsFor(hi);
+		}
+
+		@Override
+		public boolean tryAdvance(LongConsumer action) {
+			while (position == buffer.length) {
+				if (nextSegment >= endSegment()) {
+					return false;
+				}
+				long low = nextSegment * SegmentedSieve.SEGMENT_SPAN;
+				buffer = SegmentedSieve.toPrimes(low, segment(nextSegment++), lo, hi);
+				position = 0;
+			}
+			action.accept(buffer[position++]);
+			return true;
+		}
+
+		@Override
+		public void forEachRemaining(LongConsumer action) {
+			while (position < buffer.length) {
+				action.accept(buffer[position++]);
+			}
+			long end = endSegment();
+			while (nextSegment < end) {
+				long low = nextSegment * SegmentedSieve.SEGMENT_SPAN;
+				SegmentedSieve.forEachPrime(low, segment(nextSegment++), lo, hi, action);
+			}
+		}
+
+		private long[] segment(long index) {
+			Snapshot current = snapshotNear(index);
+			if (current != null) {
+				return current.segments[(int) index];
+			}
+			long low = index * SegmentedSieve.SEGMENT_SPAN, high = low + SegmentedSieve.SEGMENT_SPAN;
+			if (high > baseLimit) {
+				baseLimit = Math.min(RangeSieve.MAX_HI, Math.max(high, 2 * baseLimit));
+				basePrimes = SegmentedSieve.basePrimesFor(baseLimit);
+			}
+			long[] bits = new long[SegmentedSieve.SEGMENT_BITS / 64];
+			sieve.sieveSegment(low, bits, basePrimes);
+			return bits;
+		}
+
+		@Override
+		public Spliterator.OfLong trySplit() {
+			long end = endSegment();
+			if (hi == Long.MAX_VALUE || buffer.length > 0 || end - nextSegment < 2 * MIN_SPLIT_SEGMENTS) {
+				return null;
+			}
+			long middle = (nextSegment + end) >>> 1;
+			CacheSpliterator prefix = new CacheSpliterator(lo, middle * SegmentedSieve.SEGMENT_SPAN);
+			lo = middle * SegmentedSieve.SEGMENT_SPAN;
+			nextSegment = middle;
+			return prefix;
+		}
+
+		@Override
+		public long estimateSize() {
+			if (hi == Long.MAX_VALUE) {
+				return Long.MAX_VALUE;
+			}
+			double from = Math.max(lo, 3), to = Math.max(hi, 3);
+			return buffer.length - position + (long) (to / Math.log(to) - from / Math.log(from)) + 1;
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | DISTINCT | SORTED | NONNULL | IMMUTABLE;
+		}
+
+		@Override
+		public Comparator<? super Long> getComparator() {
+			return null;
+		}
+	}
+}
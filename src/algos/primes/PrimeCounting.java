@@ -0,0 +1,168 @@
+package algos.primes;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Prime-counting function pi(x) with the Meissel-Lehmer method :<br>
+ * pi(x) = phi(x, a) + a - 1 - P2(x, a), with a = pi(x^(1/3)),<br>
+ * phi(x, a) counting the numbers up to x not divisible by the first a primes,
+ * P2(x, a) counting the numbers up to x with exactly two prime factors greater than p(a).<br>
+ * The small tables come from the sieve : the primes up to sqrt(x) and a {@link WheelBitmap} up to x^(2/3)
+ * for the pi lookups, phi of the first primes is read from the wheels of those primes.
+ * The tables are kept between calls and only rebuilt for a higher x.
+ */
+public class PrimeCounting {
+
+	/** Below this limit, pi(x) is read from a table directly. */
+	private static final long DIRECT_LIMIT = 1L << 20;
+	/** phi(x, a) for a up to SMALL_WHEELS is computed from the wheel of the first a primes. */
+	private static final int SMALL_WHEELS = 6;
+
+	final SegmentedSieve sieve;
+	final Wheel[] smallWheels = new Wheel[SMALL_WHEELS + 1];
+
+	int[] primes;
+	WheelBitmap table;
+
+	public PrimeCounting(SegmentedSieve sieve) {
+		this.sieve = sieve;
+		int[] firstPrimes = SegmentedSieve.smallPrimes(16);
+		for (int c = 1 ; c <= SMALL_WHEELS ; c++) {
+			smallWheels[c] = Wheel.of(Arrays.copyOf(firstPrimes, c));
+		}
+	}
+
+	/**
+	 * @return the number of primes lower than or equal to x
+	 */
+	public synchronized long pi(long x) {
+		if (x < 2) {
+			return 0;
+		}
+		if (x < DIRECT_LIMIT) {
+			prepareTables(x, x + 1);
+			return table.countPrimes(x);
+		}
+		long cubeRoot = iroot(x, 3), squareRoot = iroot(x, 2);
+		prepareTables(squareRoot, x / cubeRoot + 1);
+		int a = (int) piFromTable(cubeRoot);
+		int b = (int) piFromTable(squareRoot);
+		long p2 = 0;
+		for (int i = a ; i < b ; i++) {
+			p2 += piFromTable(x / primes[i]) - i;
+		}
+		return phi(x, a) + a - 1 - p2;
+	}
+
+	/**
+	 * The n-th prime (nthPrime(1) = 2), without enumerating its predecessors :
+	 * pi is computed at a lower bound of p(n) (Dusart 2010, p(n) >= n (ln n + ln ln n - 1 + (ln ln n - 2.1) / ln n)),
+	 * then the window following the bound is sieved until the n-th prime.
+	 */
+	public long nthPrime(long n) {
+		if (n < 1) {
+			throw new IllegalArgumentException("No " + n + "-th prime");
+		}
+		if (n < 6) {
+			return SegmentedSieve.smallPrimes(12)[(int) n - 1];
+		}
+		double log = Math.log(n), logLog = Math.log(log);
+		long lowerBound = (long) (n * (log + logLog - 1 + (logLog - 2.1) / log)) - 1;
+		long count = pi(lowerBound);
+		return sieve.stream(lowerBound + 1, Long.MAX_VALUE).skip(n - count - 1).findFirst().getAsLong();
+	}
+
+	/**
+	 * Builds the primes up to primesLimit and the table of primes below tableLimit, if the current ones are too small.
+	 */
+	private void prepareTables(long primesLimit, long tableLimit) {
+		if (primes == null || primes[primes.length - 1] < primesLimit) {
+			primes = SegmentedSieve.smallPrimes((int) Math.max(primesLimit + 2, 1 << 16));
+		}
+		if (table == null || table.getLimit() < tableLimit) {
+			table = WheelBitmap.build(sieve, Math.max(tableLimit, DIRECT_LIMIT));
+		}
+	}
+
+	private long piFromTable(long x) {
+		return table.countPrimes(x);
+	}
+
+	/**
+	 * Number of integers in [1, x] not divisible by any of the first a primes.<br>
+	 * phi(x, a) = phi(x, c) - sum(phi(x / p(i), i) for c <= i < a), the terms with p(i)^2 >= x being 1,
+	 * and phi(x, a) = pi(x) - a + 1 when p(a)^2 > x. The top-level terms are independent and summed in parallel.
+	 */
+	long phi(long x, int a) {
+		if (a <= SMALL_WHEELS) {
+			return phiSmall(x, a);
+		}
+		return phiSmall(x, SMALL_WHEELS) - IntStream.range(SMALL_WHEELS, a).parallel()
+				.mapToLong(i -> phiTerm(x, i))
+				.sum();
+	}
+
+	private long phiTerm(long x, int i) {
+		long y = x / primes[i];
+		return y <= primes[i] ? 1 : phiRecursive(y, i);
+	}
+
+	private long phiRecursive(long x, int a) {
+		if (a <= SMALL_WHEELS) {
+			return phiSmall(x, a);
+		}
+		if (x <= primes[a - 1]) {
+			return 1;
+		}
+		if ((long) primes[a] * primes[a] > x && x < table.getLimit()) {
+			return piFromTable(x) - a + 1;
+		}
+		long sum = phiSmall(x, SMALL_WHEELS);
+		for (int i = SMALL_WHEELS ; i < a ; i++) {
+			long y = x / primes[i];
+			if (y <= primes[i]) {
+				sum -= a - i;
+				break;
+			}
+			sum -= phiRecursive(y, i);
+		}
+		return sum;
+	}
+
+	private long phiSmall(long x, int a) {
+		if (a == 0) {
+			return x;
+		}
+		Wheel wheel = smallWheels[a];
+		return (x / wheel.modulus) * wheel.spokes.length + wheel.firstSpokeFrom[(int) (x % wheel.modulus) + 1];
+	}
+
+	/**
+	 * Integer k-th root of x (largest r with r^k <= x).
+	 */
+	static long iroot(long x, int k) {
+		long r = (long) Math.pow(x, 1.0 / k);
+		while (r + 1 > 0 && power(r + 1, k) <= x) {
+			r++;
+		}
+		while (power(r, k) > x) {
+			r--;
+		}
+		return r;
+	}
+
+	/**
+	 * r^k, or Long.MAX_VALUE if it overflows.
+	 */
+	private static long power(long r, int k) {
+		long result = 1;
+		for (int i = 0 ; i < k ; i++) {
+			if (r != 0 && result > Long.MAX_VALUE / r) {
+				return Long.MAX_VALUE;
+			}
+			result *= r;
+		}
+		return result;
+	}
+}
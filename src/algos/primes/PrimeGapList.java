@@ -0,0 +1,251 @@
+package algos.primes;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.function.LongConsumer;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Ascending list of primes keeping about one byte per prime : the gaps between consecutive primes.<br>
+ * Every SAMPLE-th prime is a checkpoint, kept as is with the position of the gaps following it.
+ * The other primes are half their gap to the previous one (gaps are even after 3), in one byte below 128,
+ * else in two bytes (high byte flagged by its top bit) : half gaps up to 2^15 - 1, far above the gaps below 2^63.
+ * The gap after 2 is counted from 3.<br>
+ * The bytes are in pages of PAGE_BYTES, so the list can hold billions of primes. get(i) decodes at most
+ * SAMPLE - 1 gaps from the checkpoint of i. The list is filled by a single thread, then can be read by any.
+ */
+public class PrimeGapList {
+
+	static final int SAMPLE = 128;
+	private static final int PAGE_SHIFT = 20;
+	private static final int PAGE_BYTES = 1 << PAGE_SHIFT;
+	private static final int MAX_HALF_GAP = (1 << 15) - 1;
+
+	byte[][] pages = new byte[0][];
+	/** Number of bytes written. */
+	long nbBytes;
+	long[] checkpointValues = new long[16];
+	long[] checkpointPositions = new long[16];
+	long size;
+	long last;
+
+	/**
+	 * List of the primes of the stream, which must be ascending.
+	 */
+	public static PrimeGapList of(LongStream primes) {
+		PrimeGapList list = new PrimeGapList();
+		primes.forEachOrdered(list::add);
+		return list;
+	}
+
+	/**
+	 * Appends a prime greater than the last one.
+	 */
+	public void add(long prime) {
+		if (size % SAMPLE == 0) {
+			if (size > 0 && prime <= last) {
+				throw new IllegalArgumentException("The primes must be ascending : " + prime + " after " + last);
+			}
+			int checkpoint = (int) (size / SAMPLE);
+			if (checkpoint == checkpointValues.length) {
+				checkpointValues = Arrays.copyOf(checkpointValues, 2 * checkpoint);
+				checkpointPositions = Arrays.copyOf(checkpointPositions, 2 * checkpoint);
+			}
+			checkpointValues[checkpoint] = prime;
+			checkpointPositions[checkpoint] = nbBytes;
+		} else {
+			// after 2, the step is counted from 3
+			long step = last == 2 ? prime - 3 : prime - last;
+			if (prime <= last || (step & 1) != 0 || step / 2 > MAX_HALF_GAP) {
+				throw new IllegalArgumentException("Gap from " + last + " to " + prime
+						+ " : the primes must be ascending, with gaps up to " + 2 * MAX_HALF_GAP);
+			}
+			int halfGap = (int) (step >>> 1);
+			if (halfGap < 0x80) {
+				writeByte(halfGap);
+			} else {
+				writeByte(0x80 | halfGap >>> 8);
+				writeByte(halfGap & 0xFF);
+			}
+		}
+		last = prime;
+		size++;
+	}
+
+	private void writeByte(int value) {
+		int page = (int) (nbBytes >>> PAGE_SHIFT);
+		if (page == pages.length) {
+			pages = Arrays.copyOf(pages, Math.max(4, 2 * page));
+		}
+		if (pages[page] == null) {
+			pages[page] = new byte[PAGE_BYTES];
+		}
+		pages[page][(int) (nbBytes & (PAGE_BYTES - 1))] = (byte) value;
+		nbBytes++;
+	}
+
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * Bytes taken by the pages and the checkpoints (the last page is allocated in full).
+	 */
+	public long getMemoryBytes() {
+		long pageBytes = 0;
+		for (byte[] page : pages) {
+			pageBytes += page == null ? 0 : page.length;
+		}
+		return pageBytes + 8L * (checkpointValues.length + checkpointPositions.length);
+	}
+
+	/**
+	 * The prime at index i (get(0) is the first prime added).
+	 */
+	public long get(long i) {
+		if (i < 0 || i >= size) {
+			throw new IndexOutOfBoundsException("Index " + i + " of a list of " + size + " primes");
+		}
+		Cursor cursor = new Cursor(i);
+		return cursor.value;
+	}
+
+	/**
+	 * Decodes the primes from index from into chunk, as many as fit in it.
+	 * @return the number of primes written into chunk
+	 */
+	public int decode(long from, long[] chunk) {
+		if (from < 0 || from > size) {
+			throw new IndexOutOfBoundsException("Index " + from + " of a list of " + size + " primes");
+		}
+		int length = (int) Math.min(chunk.length, size - from);
+		if (length == 0) {
+			return 0;
+		}
+		Cursor cursor = new Cursor(from);
+		chunk[0] = cursor.value;
+		for (int i = 1 ; i < length ; i++) {
+			chunk[i] = cursor.next();
+		}
+		return length;
+	}
+
+	public LongStream stream() {
+		return StreamSupport.longStream(new GapSpliterator(0, size), false);
+	}
+
+	/**
+	 * Position in the list, moving forward : index, prime and position of the next gap.
+	 */
+	private final class Cursor {
+
+		long index;
+		long value;
+		long position;
+
+		/**
+		 * Cursor on the prime at index i, from the checkpoint of i.
+		 */
+		Cursor(long i) {
+			int checkpoint = (int) (i / SAMPLE);
+			index = (long) checkpoint * SAMPLE;
+			value = checkpointValues[checkpoint];
+			position = checkpointPositions[checkpoint];
+			while (index < i) {
+				next();
+			}
+		}
+
+		/**
+		 * Moves to the next prime, which must exist.
+		 */
+		long next() {
+			index++;
+			if (index % SAMPLE == 0) {
+				int checkpoint = (int) (index / SAMPLE);
+				value = checkpointValues[checkpoint];
+				position = checkpointPositions[checkpoint];
+				return value;
+			}
+			int halfGap = readByte();
+			if (halfGap >= 0x80) {
+				halfGap = (halfGap & 0x7F) << 8 | readByte();
+			}
+			value = (value == 2 ? 3 : value) + 2 * halfGap;
+			return value;
+		}
+
+		private int readByte() {
+			int b = pages[(int) (position >>> PAGE_SHIFT)][(int) (position & (PAGE_BYTES - 1))] & 0xFF;
+			position++;
+			return b;
+		}
+	}
+
+	/**
+	 * Primes of the indices [index, end), split on the checkpoints.
+	 */
+	private final class GapSpliterator implements Spliterator.OfLong {
+
+		long index;
+		final long end;
+		Cursor cursor;
+
+		GapSpliterator(long index, long end) {
+			this.index = index;
+			this.end = end;
+		}
+
+		@Override
+		public boolean tryAdvance(LongConsumer action) {
+			if (index >= end) {
+				return false;
+			}
+			if (cursor == null) {
+				cursor = new Cursor(index);
+			} else {
+				cursor.next();
+			}
+			index++;
+			action.accept(cursor.value);
+			return true;
+		}
+
+		@Override
+		public void forEachRemaining(LongConsumer action) {
+			while (tryAdvance(action)) {
+				// decoded one by one
+			}
+		}
+
+		@Override
+		public Spliterator.OfLong trySplit() {
+			// the cursor is only created by the first tryAdvance : split before it
+			long middle = (index + end) >>> 1;
+			middle = middle / SAMPLE * SAMPLE;
+			if (cursor != null || middle <= index) {
+				return null;
+			}
+			GapSpliterator prefix = new GapSpliterator(index, middle);
+			index = middle;
+			return prefix;
+		}
+
+		@Override
+		public long estimateSize() {
+			return end - index;
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | DISTINCT | SORTED | NONNULL | IMMUTABLE | SIZED | SUBSIZED;
+		}
+
+		@Override
+		public Comparator<? super Long> getComparator() {
+			return null;
+		}
+	}
+}
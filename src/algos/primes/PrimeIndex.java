@@ -0,0 +1,170 @@
+package algos.primes;
+
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * Succinct rank/select index over the bits of a {@link WheelBitmap} : pi(x) and the k-th prime in constant time.<br>
+ * Rank : the number of set bits before each superblock of SUPERBLOCK_WORDS words is kept in a long, and before
+ * each block of BLOCK_WORDS words relatively to its superblock in a char (16 bits per 512 bits, about 3%).
+ * A rank is then a superblock count, a block count and at most BLOCK_WORDS popcounts.<br>
+ * Select : the block holding every SELECT_SAMPLE-th set bit is sampled, the block of any set bit is found by
+ * a binary search between two samples, then by scanning the words of the block.
+ */
+public class PrimeIndex {
+
+	static final int BLOCK_WORDS = 8;
+	static final int SUPERBLOCK_WORDS = 1 << 10;
+	static final int SELECT_SAMPLE = 1 << 12;
+
+	final WheelBitmap table;
+	final LongBuffer bits;
+	final int nbWords;
+	final int nbBlocks;
+	final long[] superblockRanks;
+	final char[] blockRanks;
+	final int[] selectSamples;
+	/** Number of set bits in the bitmap, and number of wheel primes (not in the bitmap) below the limit. */
+	final long nbOnes;
+	final int nbWheelPrimes;
+
+	public PrimeIndex(WheelBitmap table) {
+		this.table = table;
+		this.bits = table.bits;
+		this.nbWords = table.nbWords;
+		this.nbBlocks = (nbWords + BLOCK_WORDS - 1) / BLOCK_WORDS;
+		superblockRanks = new long[(nbWords + SUPERBLOCK_WORDS - 1) / SUPERBLOCK_WORDS];
+		blockRanks = new char[nbBlocks];
+		long count = 0;
+		int nbSamples = 0;
+		int[] samples = new int[16];
+		for (int i = 0 ; i < nbWords ; i++) {
+			if (i % SUPERBLOCK_WORDS == 0) {
+				superblockRanks[i / SUPERBLOCK_WORDS] = count;
+			}
+			if (i % BLOCK_WORDS == 0) {
+				blockRanks[i / BLOCK_WORDS] = (char) (count - superblockRanks[i / SUPERBLOCK_WORDS]);
+			}
+			long next = count + Long.bitCount(bits.get(i));
+			// one sample for each multiple of SELECT_SAMPLE in [count, next)
+			while ((long) nbSamples * SELECT_SAMPLE < next) {
+				if (nbSamples == samples.length) {
+					samples = Arrays.copyOf(samples, 2 * nbSamples);
+				}
+				samples[nbSamples++] = i / BLOCK_WORDS;
+			}
+			count = next;
+		}
+		nbOnes = count;
+		selectSamples = Arrays.copyOf(samples, nbSamples);
+		int nbPrimes = 0;
+		for (int prime : table.wheel.primes) {
+			if (prime < table.limit) {
+				nbPrimes++;
+			}
+		}
+		nbWheelPrimes = nbPrimes;
+	}
+
+	public WheelBitmap getTable() {
+		return table;
+	}
+
+	/**
+	 * Number of primes of the table (below its limit).
+	 */
+	public long getNbPrimes() {
+		return nbWheelPrimes + nbOnes;
+	}
+
+	/**
+	 * Memory of the index itself, besides the bitmap.
+	 */
+	public long getMemoryBytes() {
+		return 8L * superblockRanks.length + 2L * blockRanks.length + 4L * selectSamples.length;
+	}
+
+	/**
+	 * Number of primes lower than or equal to x (pi(x)), x being lower than the limit of the table.
+	 */
+	public long rank(long x) {
+		if (x < 0 || x >= table.limit) {
+			throw new IllegalArgumentException(x + " is outside the table [0, " + table.limit + ")");
+		}
+		Wheel wheel = table.wheel;
+		long count = 0;
+		for (int prime : wheel.primes) {
+			if (prime <= x) {
+				count++;
+			}
+		}
+		long from = x + 1;
+		long bit = wheel.firstBitFrom(from);
+		return count + rankOfBit(bit);
+	}
+
+	/**
+	 * Number of set bits strictly before the given bit.
+	 */
+	long rankOfBit(long bit) {
+		if (bit >= 64L * nbWords) {
+			return nbOnes;
+		}
+		int word = (int) (bit >>> 6);
+		int block = word / BLOCK_WORDS;
+		long count = rankOfBlock(block);
+		for (int i = block * BLOCK_WORDS ; i < word ; i++) {
+			count += Long.bitCount(bits.get(i));
+		}
+		if ((bit & 63) != 0) {
+			count += Long.bitCount(bits.get(word) & ((1L << bit) - 1));
+		}
+		return count;
+	}
+
+	private long rankOfBlock(int block) {
+		return superblockRanks[block * BLOCK_WORDS / SUPERBLOCK_WORDS] + blockRanks[block];
+	}
+
+	/**
+	 * The k-th prime (select(1) = 2), k being at most the number of primes of the table.
+	 */
+	public long select(long k) {
+		if (k < 1 || k > getNbPrimes()) {
+			throw new IllegalArgumentException("The table holds " + getNbPrimes() + " primes : no prime number " + k);
+		}
+		if (k <= nbWheelPrimes) {
+			return table.wheel.primes[(int) k - 1];
+		}
+		return table.wheel.numberOf(selectBit(k - nbWheelPrimes - 1));
+	}
+
+	/**
+	 * Position of the set bit of rank j (j set bits before it).
+	 */
+	long selectBit(long j) {
+		int sample = (int) (j / SELECT_SAMPLE);
+		// last block whose rank is <= j, between the blocks of two samples
+		int low = selectSamples[sample];
+		int high = sample + 1 < selectSamples.length ? selectSamples[sample + 1] : nbBlocks - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (rankOfBlock(middle) <= j) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		long remaining = j - rankOfBlock(low);
+		int word = low * BLOCK_WORDS;
+		long value = bits.get(word);
+		for (int count = Long.bitCount(value) ; remaining >= count ; count = Long.bitCount(value)) {
+			remaining -= count;
+			value = bits.get(++word);
+		}
+		for ( ; remaining > 0 ; remaining--) {
+			value &= value - 1;
+		}
+		return 64L * word + Long.numberOfTrailingZeros(value);
+	}
+}
@@ -0,0 +1,37 @@
+package algos.primes;
+
+import java.util.stream.LongStream;
+
+/**
+ * Common view of the sieve engines : the primes of a window [lo, hi), their number and the primality of one number.<br>
+ * {@link PrimeSieveSelector} picks an engine for a range and the cores available :
+ * the wheel {@link SegmentedSieve} or the {@link ParallelSieve}.
+ */
+public interface PrimeSieve {
+
+	/**
+	 * Primes of [lo, hi) in ascending order.
+	 */
+	LongStream primesBetween(long lo, long hi);
+
+	/**
+	 * Primes strictly lower than limit.
+	 */
+	default LongStream stream(long limit) {
+		return primesBetween(0, limit);
+	}
+
+	/**
+	 * Number of primes within [lo, hi).
+	 */
+	default long count(long lo, long hi) {
+		return primesBetween(lo, hi).count();
+	}
+
+	/**
+	 * Primality of n, by sieving the window [n, n+1).
+	 */
+	default boolean isPrime(long n) {
+		return n >= 2 && count(n, n + 1) == 1;
+	}
+}
@@ -0,0 +1,59 @@
+package algos.primes;
+
+/**
+ * Picks a {@link PrimeSieve} engine for a window [lo, hi) from the cores available.<br>
+ * Only the engines which win somewhere are candidates : the wheel sieve, and the parallel sieve for wide windows.
+ * The odd-only Eratosthenes (a SegmentedSieve on the wheel 2) was always behind the wheel sieve (upToX.* benchmarks
+ * of PrimesBenchmark) and is never selected. {@link AtkinSieve} is a reference engine, outside of PrimeSieve.<br>
+ * The default crossover of the parallel sieve is a guess, not a measurement : the benchmarks were run on a single core,
+ * where the parallel sieve never wins. Tune it with upToX.segmented against upToX.parallel on the target machine.
+ */
+public class PrimeSieveSelector {
+
+	public enum Engine { WHEEL, PARALLEL }
+
+	final SegmentedSieve wheel;
+	final ParallelSieve parallel;
+	final long parallelMinSpan;
+
+	public PrimeSieveSelector(SegmentedSieve wheel) {
+		this(wheel, 1L << 26);
+	}
+
+	/**
+	 * @param parallelMinSpan windows at least this wide are sieved on all the cores
+	 * (the crossover depends on the hardware : the default, 2^26, is a guess)
+	 */
+	public PrimeSieveSelector(SegmentedSieve wheel, long parallelMinSpan) {
+		this.wheel = wheel;
+		this.parallel = new ParallelSieve(wheel);
+		this.parallelMinSpan = parallelMinSpan;
+	}
+
+	/**
+	 * Engine for [lo, hi) with the processors of this JVM.
+	 */
+	public Engine choose(long lo, long hi) {
+		return choose(lo, hi, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Engine for [lo, hi) with the given number of cores : both engines keep a bounded number of segments,
+	 * whatever the width of the window, so the memory does not matter.
+	 */
+	public Engine choose(long lo, long hi, int cores) {
+		long span = hi - Math.max(lo, 0);
+		if (cores > 1 && span >= parallelMinSpan) {
+			return Engine.PARALLEL;
+		}
+		return Engine.WHEEL;
+	}
+
+	public PrimeSieve select(long lo, long hi) {
+		return get(choose(lo, hi));
+	}
+
+	public PrimeSieve get(Engine engine) {
+		return engine == Engine.PARALLEL ? parallel : wheel;
+	}
+}
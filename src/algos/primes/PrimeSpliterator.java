@@ -0,0 +1,102 @@
+package algos.primes;
+
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.function.LongConsumer;
+
+/**
+ * Lazy spliterator over the primes of [lo, hi) : a segment is only sieved when the consumer reaches it.<br>
+ * With hi = Long.MAX_VALUE the spliterator is infinite (in practice the base primes are ints,
+ * which limits it to about 4.6*10^18). Memory holds one segment and the base primes up to the
+ * square root of the current segment, which are re-sieved with a doubled limit when needed.<br>
+ * The first segment is small and the size doubles up to SEGMENT_BITS, so that a short prefix stays cheap.
+ */
+public class PrimeSpliterator implements Spliterator.OfLong {
+
+	private static final int FIRST_SEGMENT_WORDS = 64;
+
+	final SegmentedSieve sieve;
+	final long lo, hi;
+	long nextLow;
+	long[] bits = new long[FIRST_SEGMENT_WORDS];
+	long[] buffer = new long[0];
+	int position;
+	int[] basePrimes = new int[0];
+	long basePrimesLimit;
+
+	public PrimeSpliterator(SegmentedSieve sieve, long lo, long hi) {
+		this.sieve = sieve;
+		this.lo = Math.max(lo, 0);
+		this.hi = hi;
+		this.nextLow = this.lo & ~127L;
+	}
+
+	@Override
+	public boolean tryAdvance(LongConsumer action) {
+		while (position == buffer.length) {
+			if (nextLow >= hi) {
+				return false;
+			}
+			long low = sieveNextSegment();
+			buffer = SegmentedSieve.toPrimes(low, bits, lo, hi);
+			position = 0;
+		}
+		action.accept(buffer[position++]);
+		return true;
+	}
+
+	@Override
+	public void forEachRemaining(LongConsumer action) {
+		while (position < buffer.length) {
+			action.accept(buffer[position++]);
+		}
+		while (nextLow < hi) {
+			long low = sieveNextSegment();
+			SegmentedSieve.forEachPrime(low, bits, lo, hi, action);
+		}
+	}
+
+	/**
+	 * Sieves the segment starting at nextLow, after having extended the base primes if needed.
+	 * @return the start of the sieved segment
+	 */
+	private long sieveNextSegment() {
+		long low = nextLow;
+		if (bits.length < SegmentedSieve.SEGMENT_BITS / 64 && low > 128L * bits.length) {
+			bits = new long[2 * bits.length];
+		}
+		long high = low + 128L * bits.length;
+		long needed = (long) Math.sqrt((double) high) + 2;
+		if (basePrimesLimit < needed) {
+			basePrimesLimit = Math.min(Math.max(2 * basePrimesLimit, needed), SegmentedSieve.MAX_BASE_BOUND);
+			basePrimes = SegmentedSieve.smallPrimes((int) basePrimesLimit);
+		}
+		sieve.sieveSegment(low, bits, basePrimes);
+		nextLow = high < low ? Long.MAX_VALUE : high;
+		return low;
+	}
+
+	@Override
+	public Spliterator.OfLong trySplit() {
+		return null;
+	}
+
+	@Override
+	public long estimateSize() {
+		if (hi == Long.MAX_VALUE) {
+			return Long.MAX_VALUE;
+		}
+		double from = Math.max(nextLow, 3), to = Math.max(hi, 3);
+		return buffer.length - position + (long) (to / Math.log(to) - from / Math.log(from)) + 1;
+	}
+
+	@Override
+	public int characteristics() {
+		return ORDERED | DISTINCT | SORTED | NONNULL | IMMUTABLE;
+	}
+
+	@Override
+	public Comparator<? super Long> getComparator() {
+		return null;
+	}
+}
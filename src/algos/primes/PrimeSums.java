@@ -0,0 +1,200 @@
+package algos.primes;
+
+import java.math.BigInteger;
+
+/**
+ * Sums of p^k over the primes p <= x, in O(x^(3/4)) time and O(sqrt(x)) memory (Lucy_Hedgehog).<br>
+ * S(v) starts as the sum of n^k for 2 <= n <= v, for the O(sqrt(x)) values v = x/i. Then for each prime p <= sqrt(x),
+ * the numbers whose smallest prime factor is p are removed : S(v) -= p^k (S(v/p) - S(p-1)) for v >= p^2.
+ * At the end S(x) only holds the primes.<br>
+ * The exact sums are accumulated on 128 bits (two longs per value), the modular ones on one long.
+ */
+public class PrimeSums {
+
+	final long x;
+	final int k;
+	final int sqrt;
+	final int[] basePrimes;
+
+	private PrimeSums(long x, int k) {
+		if (x < 0 || k < 0) {
+			throw new IllegalArgumentException("x and k must be positive : x = " + x + ", k = " + k);
+		}
+		this.x = x;
+		this.k = k;
+		this.sqrt = (int) PrimeCounting.iroot(x, 2);
+		this.basePrimes = SegmentedSieve.smallPrimes(sqrt + 1);
+	}
+
+	/**
+	 * Exact sum of p^k for the primes p <= x : the sum of n^k up to x must hold in 126 bits.
+	 */
+	public static BigInteger sum(long x, int k) {
+		PrimeSums sums = new PrimeSums(x, k);
+		if (BigInteger.valueOf(x).pow(k + 1).bitLength() > 126) {
+			throw new IllegalArgumentException("The sum of the " + k + "-th powers up to " + x
+					+ " does not hold in 128 bits : use the modular sum");
+		}
+		return sums.exact();
+	}
+
+	/**
+	 * Sum of p^k modulo modulus for the primes p <= x.
+	 * @param modulus up to Integer.MAX_VALUE, so that a product of two residues holds in a long
+	 */
+	public static long sum(long x, int k, long modulus) {
+		if (modulus < 1 || modulus > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("The modulus must be in [1, " + Integer.MAX_VALUE + "] : " + modulus);
+		}
+		return new PrimeSums(x, k).modular(modulus);
+	}
+
+	private BigInteger exact() {
+		if (x < 2) {
+			return BigInteger.ZERO;
+		}
+		// small[v] = S(v) for v <= sqrt, large[i] = S(x/i) : high and low words
+		long[] smallHigh = new long[sqrt + 1], smallLow = new long[sqrt + 1];
+		long[] largeHigh = new long[sqrt + 1], largeLow = new long[sqrt + 1];
+		PowerSum powerSum = new PowerSum(k);
+		for (int v = 1 ; v <= sqrt ; v++) {
+			BigInteger value = powerSum.from2To(v);
+			smallLow[v] = value.longValue();
+			smallHigh[v] = value.shiftRight(64).longValue();
+		}
+		for (int i = 1 ; i <= sqrt ; i++) {
+			BigInteger value = powerSum.from2To(x / i);
+			largeLow[i] = value.longValue();
+			largeHigh[i] = value.shiftRight(64).longValue();
+		}
+		for (int p : basePrimes) {
+			long square = (long) p * p;
+			long power = BigInteger.valueOf(p).pow(k).longValue(); // p^k <= x^(k/2) < 2^63
+			long belowHigh = smallHigh[p - 1], belowLow = smallLow[p - 1];
+			long end = Math.min(sqrt, x / square);
+			for (int i = 1 ; i <= end ; i++) {
+				long d = (long) i * p;
+				long high, low;
+				if (d <= sqrt) {
+					high = largeHigh[(int) d];
+					low = largeLow[(int) d];
+				} else {
+					int v = (int) (x / d);
+					high = smallHigh[v];
+					low = smallLow[v];
+				}
+				subtractProduct(largeHigh, largeLow, i, high, low, belowHigh, belowLow, power);
+			}
+			for (int v = sqrt ; v >= square ; v--) {
+				int w = v / p;
+				subtractProduct(smallHigh, smallLow, v, smallHigh[w], smallLow[w], belowHigh, belowLow, power);
+			}
+		}
+		return BigInteger.valueOf(largeHigh[1]).shiftLeft(64)
+				.add(BigInteger.valueOf(largeLow[1] >>> 1).shiftLeft(1)).add(BigInteger.valueOf(largeLow[1] & 1));
+	}
+
+	/**
+	 * (high, low)[index] -= power * ((valueHigh, valueLow) - (belowHigh, belowLow)), modulo 2^128 : the true values
+	 * hold in 128 bits, so the wrapped arithmetic gives them exactly.
+	 */
+	private static void subtractProduct(long[] high, long[] low, int index, long valueHigh, long valueLow,
+			long belowHigh, long belowLow, long power) {
+		long differenceLow = valueLow - belowLow;
+		long differenceHigh = valueHigh - belowHigh - (Long.compareUnsigned(valueLow, belowLow) < 0 ? 1 : 0);
+		long productLow = differenceLow * power;
+		long productHigh = PrimalityTest.multiplyHighUnsigned(differenceLow, power) + differenceHigh * power;
+		long newLow = low[index] - productLow;
+		high[index] = high[index] - productHigh - (Long.compareUnsigned(low[index], productLow) < 0 ? 1 : 0);
+		low[index] = newLow;
+	}
+
+	private long modular(long modulus) {
+		if (x < 2) {
+			return 0;
+		}
+		long[] small = new long[sqrt + 1];
+		long[] large = new long[sqrt + 1];
+		PowerSum powerSum = new PowerSum(k);
+		BigInteger m = BigInteger.valueOf(modulus);
+		for (int v = 1 ; v <= sqrt ; v++) {
+			small[v] = powerSum.from2To(v).mod(m).longValue();
+		}
+		for (int i = 1 ; i <= sqrt ; i++) {
+			large[i] = powerSum.from2To(x / i).mod(m).longValue();
+		}
+		for (int p : basePrimes) {
+			long square = (long) p * p;
+			long power = BigInteger.valueOf(p).modPow(BigInteger.valueOf(k), m).longValue();
+			long below = small[p - 1];
+			long end = Math.min(sqrt, x / square);
+			for (int i = 1 ; i <= end ; i++) {
+				long d = (long) i * p;
+				long value = d <= sqrt ? large[(int) d] : small[(int) (x / d)];
+				large[i] = Math.floorMod(large[i] - power * Math.floorMod(value - below, modulus) % modulus, modulus);
+			}
+			for (int v = sqrt ; v >= square ; v--) {
+				small[v] = Math.floorMod(small[v] - power * Math.floorMod(small[v / p] - below, modulus) % modulus, modulus);
+			}
+		}
+		return large[1];
+	}
+
+	/**
+	 * Sum of n^k for 1 <= n <= v, as the polynomial of degree k+1 interpolated on 0..k+1 (Lagrange) :
+	 * (k+1)! P(v) = sum over j of (-1)^(k+1-j) C(k+1, j) P(j) prod over i != j of (v - i).
+	 */
+	private static final class PowerSum {
+
+		final int degree;
+		final BigInteger[] weights;
+		final BigInteger factorial;
+
+		PowerSum(int k) {
+			degree = k + 1;
+			weights = new BigInteger[degree + 1];
+			BigInteger value = BigInteger.ZERO;
+			BigInteger binomial = BigInteger.ONE;
+			for (int j = 0 ; j <= degree ; j++) {
+				if (j > 0) {
+					value = value.add(BigInteger.valueOf(j).pow(k));
+					binomial = binomial.multiply(BigInteger.valueOf(degree - j + 1)).divide(BigInteger.valueOf(j));
+				}
+				BigInteger weight = binomial.multiply(value);
+				weights[j] = (degree - j) % 2 == 0 ? weight : weight.negate();
+			}
+			BigInteger f = BigInteger.ONE;
+			for (int i = 2 ; i <= degree ; i++) {
+				f = f.multiply(BigInteger.valueOf(i));
+			}
+			factorial = f;
+		}
+
+		BigInteger from1To(long v) {
+			if (v <= degree) {
+				BigInteger sum = BigInteger.ZERO;
+				for (long n = 1 ; n <= v ; n++) {
+					sum = sum.add(BigInteger.valueOf(n).pow(degree - 1));
+				}
+				return sum;
+			}
+			// prefix[j] = prod of (v - i) for i < j, the suffix being accumulated backwards
+			BigInteger[] prefix = new BigInteger[degree + 2];
+			prefix[0] = BigInteger.ONE;
+			for (int i = 0 ; i <= degree ; i++) {
+				prefix[i + 1] = prefix[i].multiply(BigInteger.valueOf(v - i));
+			}
+			BigInteger sum = BigInteger.ZERO;
+			BigInteger suffix = BigInteger.ONE;
+			for (int j = degree ; j >= 0 ; j--) {
+				sum = sum.add(weights[j].multiply(prefix[j]).multiply(suffix));
+				suffix = suffix.multiply(BigInteger.valueOf(v - j));
+			}
+			return sum.divide(factorial);
+		}
+
+		BigInteger from2To(long v) {
+			return from1To(v).subtract(BigInteger.ONE);
+		}
+	}
+}
@@ -0,0 +1,193 @@
+package algos.primes;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * On-disk copy of a {@link WheelBitmap}, opened with FileChannel.map so that later runs read the primes
+ * without sieving them again (and without copying the file in the heap).<br>
+ * Layout (little endian) : a header of HEADER_BYTES bytes (magic, version, wheel primes, limit, sizes),
+ * the words of the bitmap, then the block counts. A single mapping is used, so the file is limited to 2 GB
+ * (primes below about 8*10^10 with the 2.3.5.7.11 wheel).
+ */
+public class PrimeTableFile {
+
+	private static final long MAGIC = 0x5052494D45544231L; // "PRIMETB1"
+	private static final int VERSION = 1;
+	private static final int MAX_WHEEL_PRIMES = 8;
+	static final int HEADER_BYTES = 8 + 4 + 4 + 4 * MAX_WHEEL_PRIMES + 8 + 8 + 8;
+
+	private PrimeTableFile() {
+	}
+
+	/**
+	 * Maps the table if the file exists and matches the wheel and the limit, otherwise sieves it, writes it and maps it.
+	 */
+	public static WheelBitmap openOrBuild(Path path, Wheel wheel, long limit) {
+		WheelBitmap table = Files.exists(path) ? map(path, wheel, limit) : null;
+		if (table == null) {
+			write(WheelBitmap.build(new SegmentedSieve(wheel), limit), path);
+			table = map(path, wheel, limit);
+		}
+		return table;
+	}
+
+	/**
+	 * Writes the table in a temporary file then moves it to path, so that readers never map a partial file.
+	 */
+	public static void write(WheelBitmap table, Path path) {
+		ByteBuffer header = header(table.wheel, table.limit, table.nbWords, table.blockCounts.capacity());
+		try {
+			Path temporary = temporaryFileFor(path);
+			try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+				writeFully(channel, header);
+				writeLongs(channel, table.bits);
+				writeLongs(channel, table.blockCounts);
+			}
+			Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	static Path temporaryFileFor(Path path) throws IOException {
+		return Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+	}
+
+	/**
+	 * Header of a table, ready to be written.
+	 */
+	static ByteBuffer header(Wheel wheel, long limit, long nbWords, long nbBlocks) {
+		int[] wheelPrimes = wheel.primes;
+		if (wheelPrimes.length > MAX_WHEEL_PRIMES) {
+			throw new IllegalArgumentException("At most " + MAX_WHEEL_PRIMES + " primes in the wheel");
+		}
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		header.putLong(MAGIC).putInt(VERSION).putInt(wheelPrimes.length);
+		for (int i = 0 ; i < MAX_WHEEL_PRIMES ; i++) {
+			header.putInt(i < wheelPrimes.length ? wheelPrimes[i] : 0);
+		}
+		header.putLong(limit).putLong(nbWords).putLong(nbBlocks);
+		header.flip();
+		return header;
+	}
+
+	/**
+	 * Fields of a table header.
+	 */
+	static final class Header {
+		final int[] wheelPrimes;
+		final long limit;
+		final long nbWords;
+		final long nbBlocks;
+
+		Header(int[] wheelPrimes, long limit, long nbWords, long nbBlocks) {
+			this.wheelPrimes = wheelPrimes;
+			this.limit = limit;
+			this.nbWords = nbWords;
+			this.nbBlocks = nbBlocks;
+		}
+	}
+
+	/**
+	 * Reads the header of a table, at the position of the buffer (little endian).
+	 * @return the header, or null if the buffer does not start with a table header
+	 */
+	static Header readHeader(ByteBuffer buffer) {
+		if (buffer.remaining() < HEADER_BYTES || buffer.getLong() != MAGIC || buffer.getInt() != VERSION) {
+			return null;
+		}
+		int[] wheelPrimes = new int[buffer.getInt()];
+		for (int i = 0 ; i < MAX_WHEEL_PRIMES ; i++) {
+			int prime = buffer.getInt();
+			if (i < wheelPrimes.length) {
+				wheelPrimes[i] = prime;
+			}
+		}
+		return new Header(wheelPrimes, buffer.getLong(), buffer.getLong(), buffer.getLong());
+	}
+
+	private static void writeLongs(FileChannel channel, LongBuffer longs) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0 ; i < longs.capacity() ; i++) {
+			if (!buffer.hasRemaining()) {
+				buffer.flip();
+				writeFully(channel, buffer);
+				buffer.clear();
+			}
+			buffer.putLong(longs.get(i));
+		}
+		buffer.flip();
+		writeFully(channel, buffer);
+	}
+
+	static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * Maps the table stored in path.
+	 * @return the table, or null if the file was written for another wheel or a lower limit (stale file)
+	 */
+	public static WheelBitmap map(Path path, Wheel wheel, long limit) {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			WheelBitmap table = map(channel);
+			if (table == null || !Arrays.equals(table.wheel.primes, wheel.primes) || table.limit < limit) {
+				return null;
+			}
+			return table;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Maps the table stored in path, whatever its wheel and its limit.
+	 */
+	public static WheelBitmap map(Path path) {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			WheelBitmap table = map(channel);
+			if (table == null) {
+				throw new IllegalStateException(path + " is not a prime table");
+			}
+			return table;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static WheelBitmap map(FileChannel channel) throws IOException {
+		if (channel.size() < HEADER_BYTES) {
+			return null;
+		}
+		MappedByteBuffer mapped = channel.map(MapMode.READ_ONLY, 0, channel.size());
+		mapped.order(ByteOrder.LITTLE_ENDIAN);
+		Header header = readHeader(mapped);
+		if (header == null || channel.size() != HEADER_BYTES + 8 * (header.nbWords + header.nbBlocks)) {
+			return null;
+		}
+		LongBuffer bits = slice(mapped, HEADER_BYTES, header.nbWords);
+		LongBuffer blockCounts = slice(mapped, HEADER_BYTES + 8 * (int) header.nbWords, header.nbBlocks);
+		return new WheelBitmap(Wheel.of(header.wheelPrimes), header.limit, bits, blockCounts);
+	}
+
+	private static LongBuffer slice(MappedByteBuffer mapped, int position, long nbLongs) {
+		ByteBuffer view = mapped.duplicate();
+		view.position(position);
+		view.limit(position + 8 * (int) nbLongs);
+		return view.slice().order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+	}
+}
@@ -0,0 +1,292 @@
+package algos.primes;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.function.LongConsumer;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Sieve of the primes p = a (mod q) : only the numbers of the progression are in the bitmap.<br>
+ * The modulus is extended to L = q * (some wheel primes not dividing q), the progression then splitting
+ * in the classes r (mod L) coprime to L, as the spokes of a wheel. As in {@link WheelBitmap}, the number
+ * r_c + L*t is the bit t * nbClasses + c. A base prime p divides r + L*t when t = -r * L^-1 (mod p).<br>
+ * With q dividing 2310, a bitmap bit stands for 2310 / (480 / phi(q)) numbers, instead of 2310 / 480 for all the primes.
+ */
+public class ProgressionSieve {
+
+	/** The wheel primes are added to the modulus while the number of classes stays below this. */
+	static final int MAX_CLASSES = 64;
+	private static final int[] WHEEL_PRIMES = {2, 3, 5, 7, 11, 13};
+
+	final long q, a;
+	/** Extended modulus, classes of the progression modulo it, and the primes dividing L but not q. */
+	final long modulus;
+	final long[] classes;
+	final int[] extraPrimes;
+
+	public ProgressionSieve(long q, long a) {
+		if (q < 1) {
+			throw new IllegalArgumentException("The modulus must be positive : " + q);
+		}
+		this.q = q;
+		this.a = Math.floorMod(a, q);
+		long extended = q;
+		int nbClasses = 1;
+		int[] extra = new int[WHEEL_PRIMES.length];
+		int nbExtra = 0;
+		for (int prime : WHEEL_PRIMES) {
+			if (q % prime != 0 && nbClasses * (prime - 1) <= MAX_CLASSES && extended <= Long.MAX_VALUE / 2 / prime) {
+				extended *= prime;
+				nbClasses *= prime - 1;
+				extra[nbExtra++] = prime;
+			}
+		}
+		modulus = extended;
+		extraPrimes = Arrays.copyOf(extra, nbExtra);
+		classes = new long[gcd(this.a, q) == 1 ? nbClasses : 0];
+		for (long r = this.a, c = 0 ; c < classes.length ; r += q) {
+			if (gcd(r, modulus) == 1) {
+				classes[(int) c++] = r;
+			}
+		}
+	}
+
+	static long gcd(long x, long y) {
+		while (y != 0) {
+			long t = x % y;
+			x = y;
+			y = t;
+		}
+		return x;
+	}
+
+	/**
+	 * Primes of the progression within [lo, hi), in ascending order.
+	 */
+	public LongStream stream(long lo, long hi) {
+		return StreamSupport.longStream(new ProgressionSpliterator(Math.max(lo, 0), hi), false);
+	}
+
+	public long count(long lo, long hi) {
+		return new ProgressionSpliterator(Math.max(lo, 0), hi).count();
+	}
+
+	/**
+	 * The primes which are not in the classes : those dividing q (when a is one of them modulo q)
+	 * and those added to the modulus.
+	 */
+	private long[] primesOutsideClasses(long lo, long hi) {
+		long g = gcd(a, q);
+		if (g != 1) {
+			// every number of the progression is a multiple of g : g itself is the only possible prime
+			boolean prime = g % q == a && (g < 4 || (g & 1) != 0 && PrimalityTest.millerRabin(g, PrimalityTest.BASES_64));
+			return prime && lo <= g && g < hi ? new long[] {g} : new long[0];
+		}
+		return Arrays.stream(extraPrimes).asLongStream()
+				.filter(p -> p % q == a && lo <= p && p < hi).toArray();
+	}
+
+	private final class ProgressionSpliterator implements Spliterator.OfLong {
+
+		final long lo, hi;
+		final int[] basePrimes;
+		/** L^-1 modulo each base prime. */
+		final long[] inverses;
+		final int turnsPerSegment;
+		long[] pending;
+		int pendingPosition;
+		long nextTurn;
+		final long endTurn;
+		final long[] bits;
+		long[] buffer = new long[0];
+		int position;
+
+		ProgressionSpliterator(long lo, long hi) {
+			this.lo = lo;
+			this.hi = hi;
+			this.pending = lo < hi ? primesOutsideClasses(lo, hi) : new long[0];
+			if (classes.length == 0 || lo >= hi || hi > RangeSieve.MAX_HI) {
+				if (hi > RangeSieve.MAX_HI) {
+					throw new IllegalArgumentException("hi must be at most " + RangeSieve.MAX_HI + " : " + hi);
+				}
+				basePrimes = new int[0];
+				inverses = new long[0];
+				turnsPerSegment = 0;
+				endTurn = nextTurn = 0;
+				bits = new long[0];
+				return;
+			}
+			int[] primes = SegmentedSieve.basePrimesFor(hi);
+			// the primes dividing L never divide a number of the classes
+			int nbPrimes = 0;
+			for (int p : primes) {
+				if (modulus % p != 0) {
+					primes[nbPrimes++] = p;
+				}
+			}
+			basePrimes = Arrays.copyOf(primes, nbPrimes);
+			inverses = new long[nbPrimes];
+			for (int i = 0 ; i < nbPrimes ; i++) {
+				inverses[i] = inverse(modulus % basePrimes[i], basePrimes[i]);
+			}
+			nextTurn = lo / modulus;
+			endTurn = (hi - 1) / modulus + 1;
+			turnsPerSegment = (int) Math.min(SegmentedSieve.SEGMENT_BITS / classes.length, endTurn - nextTurn);
+			bits = new long[(turnsPerSegment * classes.length + 63) / 64];
+		}
+
+		@Override
+		public boolean tryAdvance(LongConsumer action) {
+			if (pendingPosition < pending.length) {
+				action.accept(pending[pendingPosition++]);
+				return true;
+			}
+			while (position == buffer.length) {
+				if (nextTurn >= endTurn) {
+					return false;
+				}
+				long firstTurn = sieveNextSegment();
+				long[] primes = new long[countBits()];
+				int[] count = {0};
+				forEachPrime(firstTurn, n -> primes[count[0]++] = n);
+				buffer = count[0] == primes.length ? primes : Arrays.copyOf(primes, count[0]);
+				position = 0;
+			}
+			action.accept(buffer[position++]);
+			return true;
+		}
+
+		@Override
+		public void forEachRemaining(LongConsumer action) {
+			while (pendingPosition < pending.length) {
+				action.accept(pending[pendingPosition++]);
+			}
+			while (position < buffer.length) {
+				action.accept(buffer[position++]);
+			}
+			while (nextTurn < endTurn) {
+				forEachPrime(sieveNextSegment(), action);
+			}
+		}
+
+		/**
+		 * Number of primes left : the segments inside [lo, hi) are only popcounted,
+		 * the first and the last ones are decoded to leave out the numbers outside.
+		 */
+		long count() {
+			long count = pending.length - pendingPosition + buffer.length - position;
+			pendingPosition = pending.length;
+			position = buffer.length;
+			long[] edgeCount = {0};
+			for (boolean first = true ; nextTurn < endTurn ; first = false) {
+				long firstTurn = sieveNextSegment();
+				if (first || nextTurn >= endTurn) {
+					forEachPrime(firstTurn, n -> edgeCount[0]++);
+				} else {
+					count += countBits();
+				}
+			}
+			return count + edgeCount[0];
+		}
+
+		private int countBits() {
+			int count = 0;
+			for (long word : bits) {
+				count += Long.bitCount(word);
+			}
+			return count;
+		}
+
+		/**
+		 * Sieves the turns [nextTurn, nextTurn + turnsPerSegment) of all the classes.
+		 * @return the first turn of the segment
+		 */
+		private long sieveNextSegment() {
+			long firstTurn = nextTurn;
+			int nbClasses = classes.length;
+			int nbBits = turnsPerSegment * nbClasses;
+			Arrays.fill(bits, -1L);
+			if ((nbBits & 63) != 0) {
+				bits[bits.length - 1] = (1L << nbBits) - 1;
+			}
+			for (int i = 0 ; i < basePrimes.length ; i++) {
+				long p = basePrimes[i];
+				long square = p * p;
+				for (int c = 0 ; c < nbClasses ; c++) {
+					long r = classes[c];
+					// p divides r + L*t for t = tc (mod p), from the turn where r + L*t >= p^2
+					long tc = (p - r % p) % p * inverses[i] % p;
+					long from = Math.max(firstTurn, square > r ? (square - r - 1) / modulus + 1 : 0);
+					long t = from + Math.floorMod(tc - from, p);
+					for (long bit = (t - firstTurn) * nbClasses + c ; bit < nbBits ; bit += p * nbClasses) {
+						bits[(int) (bit >>> 6)] &= ~(1L << bit);
+					}
+				}
+			}
+			if (firstTurn == 0 && classes[0] == 1) {
+				bits[0] &= ~1L; // 1 is not prime
+			}
+			nextTurn = firstTurn + turnsPerSegment;
+			return firstTurn;
+		}
+
+		private void forEachPrime(long firstTurn, LongConsumer action) {
+			int nbClasses = classes.length;
+			for (int i = 0 ; i < bits.length ; i++) {
+				long word = bits[i];
+				while (word != 0) {
+					long bit = 64L * i + Long.numberOfTrailingZeros(word);
+					long n = (firstTurn + bit / nbClasses) * modulus + classes[(int) (bit % nbClasses)];
+					if (n >= hi) {
+						return;
+					}
+					if (n >= lo) {
+						action.accept(n);
+					}
+					word &= word - 1;
+				}
+			}
+		}
+
+		@Override
+		public Spliterator.OfLong trySplit() {
+			return null;
+		}
+
+		@Override
+		public long estimateSize() {
+			// numbers of the classes still to sieve
+			long remaining = (endTurn - nextTurn) * classes.length;
+			return pending.length - pendingPosition + buffer.length - position + remaining;
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | DISTINCT | SORTED | NONNULL | IMMUTABLE;
+		}
+
+		@Override
+		public Comparator<? super Long> getComparator() {
+			return null;
+		}
+	}
+
+	/**
+	 * x^-1 modulo the prime p (extended Euclid), x not being a multiple of p.
+	 */
+	static long inverse(long x, long p) {
+		long r0 = p, r1 = x % p, s0 = 0, s1 = 1;
+		while (r1 != 0) {
+			long quotient = r0 / r1;
+			long r = r0 - quotient * r1;
+			r0 = r1;
+			r1 = r;
+			long s = s0 - quotient * s1;
+			s0 = s1;
+			s1 = s;
+		}
+		return Math.floorMod(s0, p);
+	}
+}
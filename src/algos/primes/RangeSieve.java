@@ -0,0 +1,192 @@
+package algos.primes;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.function.LongConsumer;
+
+/**
+ * Sieve of an arbitrary window [lo, hi) of the 64-bit numbers, the base primes going up to sqrt(hi).<br>
+ * The base primes smaller than a segment cross off their multiples in each segment, as in {@link SegmentedSieve}.
+ * A larger base prime hits a segment at most once : it waits in the bucket of the next segment it hits,
+ * so a segment only looks at the primes which really have a multiple in it (bucket sieve).
+ * Buckets are linked lists in primitive arrays, one entry (prime, bit index, next entry) per large prime.
+ */
+public class RangeSieve implements Spliterator.OfLong {
+
+	/** Base primes are ints : hi is at most the square below which they stay under SegmentedSieve.MAX_BASE_BOUND. */
+	public static final long MAX_HI = (long) (SegmentedSieve.MAX_BASE_BOUND - 2) * (SegmentedSieve.MAX_BASE_BOUND - 2);
+
+	final SegmentedSieve sieve;
+	final long lo, hi;
+	final long firstLow;
+	final int segmentBits;
+	final long[] bits;
+	final int[] smallPrimes;
+	long segment;
+
+	// Bucket entries of the large primes
+	final int[] entryPrime;
+	final int[] entryBit;
+	final int[] entryNext;
+	final int[] bucketHeads;
+	/** First large prime whose square is not reached yet. */
+	int nextSquareEntry;
+
+	long[] buffer = new long[0];
+	int position;
+
+	public RangeSieve(SegmentedSieve sieve, long lo, long hi) {
+		if (hi > MAX_HI) {
+			throw new IllegalArgumentException("hi must be at most " + MAX_HI);
+		}
+		this.sieve = sieve;
+		this.lo = Math.max(lo, 0);
+		this.hi = Math.max(hi, this.lo);
+		this.firstLow = this.lo & ~127L;
+		long windowWords = ((this.hi - firstLow) + 127) >>> 7;
+		this.segmentBits = (int) Math.max(64, 64 * Math.min(SegmentedSieve.SEGMENT_BITS / 64, windowWords));
+		this.bits = new long[segmentBits / 64];
+		int[] basePrimes = SegmentedSieve.basePrimesFor(this.hi);
+		int nbSmall = 0;
+		while (nbSmall < basePrimes.length && basePrimes[nbSmall] < segmentBits) {
+			nbSmall++;
+		}
+		this.smallPrimes = Arrays.copyOf(basePrimes, nbSmall);
+		int nbLarge = basePrimes.length - nbSmall;
+		entryPrime = new int[nbLarge];
+		entryBit = new int[nbLarge];
+		entryNext = new int[nbLarge];
+		int largestPrime = basePrimes.length == 0 ? 0 : basePrimes[basePrimes.length - 1];
+		bucketHeads = new int[largestPrime / segmentBits + 2];
+		Arrays.fill(bucketHeads, -1);
+		System.arraycopy(basePrimes, nbSmall, entryPrime, 0, nbLarge);
+		int i = 0;
+		for ( ; i < nbLarge ; i++) {
+			int prime = entryPrime[i];
+			if ((long) prime * prime >= firstLow) {
+				break;
+			}
+			long start = (firstLow + prime - 1) / prime * prime;
+			if ((start & 1) == 0) {
+				start += prime;
+			}
+			if (start < this.hi) {
+				long bit = (start - firstLow) >>> 1;
+				addToBucket(i, bit / segmentBits, (int) (bit % segmentBits));
+			}
+		}
+		nextSquareEntry = i;
+	}
+
+	/**
+	 * Adds the large primes whose square falls in the current segment : a square further than the bucket ring
+	 * would land in a wrong bucket, so these primes only enter the buckets when the sieve reaches their square.
+	 */
+	private void addSquaresOfSegment() {
+		while (nextSquareEntry < entryPrime.length) {
+			int prime = entryPrime[nextSquareEntry];
+			long bit = ((long) prime * prime - firstLow) >>> 1;
+			if (bit / segmentBits > segment) {
+				return;
+			}
+			addToBucket(nextSquareEntry++, segment, (int) (bit % segmentBits));
+		}
+	}
+
+	private void addToBucket(int entry, long segment, int bitInSegment) {
+		int bucket = (int) (segment % bucketHeads.length);
+		entryBit[entry] = bitInSegment;
+		entryNext[entry] = bucketHeads[bucket];
+		bucketHeads[bucket] = entry;
+	}
+
+	/**
+	 * Sieves the next segment.
+	 * @return the start of the sieved segment
+	 */
+	private long sieveNextSegment() {
+		long low = firstLow + 2L * segmentBits * segment;
+		sieve.sieveSegment(low, bits, smallPrimes);
+		addSquaresOfSegment();
+		int bucket = (int) (segment % bucketHeads.length);
+		int entry = bucketHeads[bucket];
+		bucketHeads[bucket] = -1;
+		while (entry >= 0) {
+			int next = entryNext[entry];
+			int bit = entryBit[entry];
+			bits[bit >>> 6] &= ~(1L << bit);
+			long nextBit = (long) bit + entryPrime[entry];
+			long nextSegment = segment + nextBit / segmentBits;
+			if (firstLow + 2L * (nextSegment * segmentBits + nextBit % segmentBits) < hi) {
+				addToBucket(entry, nextSegment, (int) (nextBit % segmentBits));
+			}
+			entry = next;
+		}
+		segment++;
+		return low;
+	}
+
+	private boolean hasNextSegment() {
+		return firstLow + 2L * segmentBits * segment < hi;
+	}
+
+	@Override
+	public boolean tryAdvance(LongConsumer action) {
+		while (position == buffer.length) {
+			if (!hasNextSegment()) {
+				return false;
+			}
+			long low = sieveNextSegment();
+			buffer = SegmentedSieve.toPrimes(low, bits, lo, hi);
+			position = 0;
+		}
+		action.accept(buffer[position++]);
+		return true;
+	}
+
+	@Override
+	public void forEachRemaining(LongConsumer action) {
+		while (position < buffer.length) {
+			action.accept(buffer[position++]);
+		}
+		while (hasNextSegment()) {
+			long low = sieveNextSegment();
+			SegmentedSieve.forEachPrime(low, bits, lo, hi, action);
+		}
+	}
+
+	/**
+	 * Number of primes of the remaining window, counted without decoding the bitmaps.
+	 */
+	public long count() {
+		long count = buffer.length - position;
+		position = buffer.length;
+		while (hasNextSegment()) {
+			long low = sieveNextSegment();
+			count += SegmentedSieve.countPrimes(low, bits, hi) - SegmentedSieve.countPrimes(low, bits, Math.max(lo, low));
+		}
+		return count;
+	}
+
+	@Override
+	public Spliterator.OfLong trySplit() {
+		return null;
+	}
+
+	@Override
+	public long estimateSize() {
+		double from = Math.max(firstLow + 2L * segmentBits * segment, 3), to = Math.max(hi, 3);
+		return buffer.length - position + Math.max(0, (long) (to / Math.log(to) - from / Math.log(from))) + 1;
+	}
+
+	@Override
+	public int characteristics() {
+		return ORDERED | DISTINCT | SORTED | NONNULL | IMMUTABLE;
+	}
+
+	@Override
+	public Comparator<? super Long> getComparator() {
+		return null;
+	}
+}
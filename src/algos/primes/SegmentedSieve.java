@@ -0,0 +1,229 @@
+package algos.primes;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Segmented sieve of Eratosthenes working on a packed bitmap of the odd numbers.<br>
+ * A segment covers {@link #SEGMENT_BITS} odd numbers (32 KB, it stays in the CPU cache).
+ * The multiples of the wheel primes are removed by copying the precomputed wheel pattern,
+ * then the other base primes cross off their multiples.<br>
+ * In a segment starting at <code>low</code> (multiple of 128), bit b stands for the number low + 2b + 1.
+ */
+public class SegmentedSieve implements PrimeSieve {
+
+	public static final int SEGMENT_BITS = 1 << 18;
+	public static final long SEGMENT_SPAN = 2L * SEGMENT_BITS;
+
+	private static final int SIMPLE_SIEVE_LIMIT = 1 << 22;
+	/** Largest bound of the base primes : the sieve of the base primes must fit in an int array. */
+	static final int MAX_BASE_BOUND = Integer.MAX_VALUE - 8;
+
+	final Wheel wheel;
+	final long[] pattern;
+
+	public SegmentedSieve(Wheel wheel) {
+		this.wheel = wheel;
+		this.pattern = wheel.getOddPattern();
+	}
+
+	public Wheel getWheel() {
+		return wheel;
+	}
+
+	/**
+	 * Sieve used to get the base primes : a simple sieve up to SIMPLE_SIEVE_LIMIT, a segmented one above
+	 * (so that the temporary memory is one segment instead of one byte per number).
+	 * @param limit
+	 * @return the primes strictly lower than limit
+	 */
+	public static int[] smallPrimes(int limit) {
+		if (limit <= 2) {
+			return new int[0];
+		}
+		if (limit > SIMPLE_SIEVE_LIMIT) {
+			return smallPrimesSegmented(limit);
+		}
+		boolean[] composite = new boolean[limit];
+		int count = 1;
+		for (int i = 3 ; i < limit ; i += 2) {
+			if (!composite[i]) {
+				count++;
+				for (long multiple = (long) i * i ; multiple < limit ; multiple += 2 * i) {
+					composite[(int) multiple] = true;
+				}
+			}
+		}
+		int[] primes = new int[count];
+		primes[0] = 2;
+		for (int i = 3, j = 1 ; i < limit ; i += 2) {
+			if (!composite[i]) {
+				primes[j++] = i;
+			}
+		}
+		return primes;
+	}
+
+	private static int[] smallPrimesSegmented(int limit) {
+		int[] basePrimes = smallPrimes((int) Math.sqrt(limit) + 2);
+		int[] primes = new int[(int) (1.25506 * limit / Math.log(limit)) + 1]; // upper bound of pi(limit)
+		int[] count = {0};
+		SegmentedSieve sieve = new SegmentedSieve(Wheel.of(2, 3, 5, 7));
+		long[] bits = new long[SEGMENT_BITS / 64];
+		for (long low = 0 ; low < limit ; low += SEGMENT_SPAN) {
+			sieve.sieveSegment(low, bits, basePrimes);
+			forEachPrime(low, bits, 0, limit, n -> primes[count[0]++] = (int) n);
+		}
+		return Arrays.copyOf(primes, count[0]);
+	}
+
+	/**
+	 * Base primes needed to sieve up to limit, which must be at most {@link RangeSieve#MAX_HI}.
+	 */
+	public static int[] basePrimesFor(long limit) {
+		long bound = PrimeCounting.iroot(Math.max(limit, 0), 2) + 2;
+		if (bound > MAX_BASE_BOUND) {
+			throw new IllegalArgumentException("The base primes to sieve up to " + limit + " go above " + MAX_BASE_BOUND);
+		}
+		return smallPrimes((int) bound);
+	}
+
+	/**
+	 * Sieves one segment : after the call, the bits set are the primes of the segment.
+	 * @param low start of the segment, multiple of 128
+	 * @param bits bitmap of the segment
+	 * @param basePrimes primes in ascending order, at least up to the square root of the segment end
+	 */
+	public void sieveSegment(long low, long[] bits, int[] basePrimes) {
+		fillWithPattern(low, bits);
+		long high = low + 128L * bits.length;
+		int largestWheelPrime = wheel.getLargestPrime();
+		if (low == 0) {
+			bits[0] &= ~1L; // 1 is not prime
+			for (int prime : wheel.primes) {
+				if (prime != 2) {
+					bits[prime >>> 7] |= 1L << (prime >>> 1);
+				}
+			}
+		}
+		long nbBits = 64L * bits.length;
+		for (int prime : basePrimes) {
+			if (prime <= largestWheelPrime) {
+				continue;
+			}
+			long square = (long) prime * prime;
+			if (square >= high) {
+				break;
+			}
+			long start = square >= low ? square : (low + prime - 1) / prime * prime;
+			if ((start & 1) == 0) {
+				start += prime;
+			}
+			for (long i = (start - low) >>> 1 ; i < nbBits ; i += prime) {
+				bits[(int) (i >>> 6)] &= ~(1L << i);
+			}
+		}
+	}
+
+	private void fillWithPattern(long low, long[] bits) {
+		int period = pattern.length;
+		int offset = (int) ((low >>> 7) % period);
+		for (int done = 0 ; done < bits.length ; ) {
+			int length = Math.min(period - offset, bits.length - done);
+			System.arraycopy(pattern, offset, bits, done, length);
+			done += length;
+			offset = 0;
+		}
+	}
+
+	/**
+	 * Calls the consumer for each prime of the sieved segment, in ascending order, within [lo, hi).
+	 */
+	public static void forEachPrime(long low, long[] bits, long lo, long hi, LongConsumer consumer) {
+		if (low == 0 && lo <= 2 && 2 < hi) {
+			consumer.accept(2);
+		}
+		for (int i = 0 ; i < bits.length ; i++) {
+			long word = bits[i];
+			while (word != 0) {
+				long n = low + 2L * (64L * i + Long.numberOfTrailingZeros(word)) + 1;
+				if (n >= hi) {
+					return;
+				}
+				if (n >= lo) {
+					consumer.accept(n);
+				}
+				word &= word - 1;
+			}
+		}
+	}
+
+	/**
+	 * Number of primes of the sieved segment within [low, hi).
+	 */
+	public static long countPrimes(long low, long[] bits, long hi) {
+		long count = low == 0 && hi > 2 ? 1 : 0;
+		long nbBits = Math.min(64L * bits.length, Math.max(0, (hi - low) >> 1));
+		int fullWords = (int) (nbBits >>> 6);
+		for (int i = 0 ; i < fullWords ; i++) {
+			count += Long.bitCount(bits[i]);
+		}
+		if (fullWords < bits.length && (nbBits & 63) != 0) {
+			count += Long.bitCount(bits[fullWords] & ((1L << nbBits) - 1));
+		}
+		return count;
+	}
+
+	/**
+	 * Primes of the sieved segment within [lo, hi).
+	 */
+	public static long[] toPrimes(long low, long[] bits, long lo, long hi) {
+		long[] primes = new long[(int) countPrimes(low, bits, hi)];
+		int[] count = {0};
+		forEachPrime(low, bits, lo, hi, n -> primes[count[0]++] = n);
+		return count[0] == primes.length ? primes : Arrays.copyOf(primes, count[0]);
+	}
+
+	/**
+	 * Sieves the segment starting at low and gives its primes within [lo, hi).
+	 */
+	long[] primesOfSegment(long low, int[] basePrimes, long lo, long hi) {
+		long[] bits = new long[SEGMENT_BITS / 64];
+		sieveSegment(low, bits, basePrimes);
+		return toPrimes(low, bits, lo, hi);
+	}
+
+	/**
+	 * Primes strictly lower than limit. Segments are sieved one after the other when the stream reaches them.
+	 */
+	@Override
+	public LongStream stream(long limit) {
+		return stream(0, limit);
+	}
+
+	/**
+	 * Primes of [lo, hi), sieved lazily : use hi = Long.MAX_VALUE for an infinite stream.
+	 */
+	public LongStream stream(long lo, long hi) {
+		return StreamSupport.longStream(new PrimeSpliterator(this, lo, hi), false);
+	}
+
+	/**
+	 * Primes of the window [lo, hi), sieved with a memory proportional to the window (plus the base primes).
+	 * @see RangeSieve
+	 */
+	@Override
+	public LongStream primesBetween(long lo, long hi) {
+		return StreamSupport.longStream(new RangeSieve(this, lo, hi), false);
+	}
+
+	/**
+	 * Number of primes of the window [lo, hi), counted on the bitmaps.
+	 */
+	@Override
+	public long count(long lo, long hi) {
+		return new RangeSieve(this, lo, hi).count();
+	}
+}
@@ -0,0 +1,91 @@
+package algos.primes;
+
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.function.LongConsumer;
+
+/**
+ * Splittable spliterator over the primes of [lo, hi), for parallel stream pipelines.<br>
+ * trySplit hands off the first half of the remaining range (aligned on 128) as long as the traversal
+ * has not started : each half is sieved by the worker traversing it, with a {@link RangeSieve}.
+ * The exact size comes from the prime-counting function, pi(hi - 1) - pi(lo - 1), only computed
+ * when the pipeline asks for it, so the spliterator is SIZED and SUBSIZED.
+ */
+public class SizedPrimeSpliterator implements Spliterator.OfLong {
+
+	/** A range smaller than this is not split. */
+	private static final long MIN_SPLIT = 2 * SegmentedSieve.SEGMENT_SPAN;
+
+	final SegmentedSieve sieve;
+	final PrimeCounting counting;
+	long lo;
+	final long hi;
+	long size = -1;
+	long consumed;
+	/** The traversal reached hi : nothing is left, whether the size is known or not. */
+	boolean done;
+	RangeSieve range;
+
+	public SizedPrimeSpliterator(SegmentedSieve sieve, PrimeCounting counting, long lo, long hi) {
+		this.sieve = sieve;
+		this.counting = counting;
+		this.lo = Math.max(lo, 0);
+		this.hi = Math.max(hi, this.lo);
+	}
+
+	@Override
+	public Spliterator.OfLong trySplit() {
+		if (range != null || hi - lo < 2 * MIN_SPLIT) {
+			return null;
+		}
+		long middle = ((lo + hi) >>> 1) & ~127L;
+		SizedPrimeSpliterator prefix = new SizedPrimeSpliterator(sieve, counting, lo, middle);
+		lo = middle;
+		size = -1;
+		return prefix;
+	}
+
+	private RangeSieve getRange() {
+		if (range == null) {
+			range = new RangeSieve(sieve, lo, hi);
+		}
+		return range;
+	}
+
+	@Override
+	public boolean tryAdvance(LongConsumer action) {
+		if (getRange().tryAdvance(action)) {
+			consumed++;
+			return true;
+		}
+		done = true;
+		return false;
+	}
+
+	@Override
+	public void forEachRemaining(LongConsumer action) {
+		getRange().forEachRemaining(action);
+		done = true;
+	}
+
+	@Override
+	public long estimateSize() {
+		if (done) {
+			return 0;
+		}
+		if (size < 0) {
+			size = counting.pi(hi - 1) - counting.pi(lo - 1);
+		}
+		return size - consumed;
+	}
+
+	@Override
+	public int characteristics() {
+		return ORDERED | DISTINCT | SORTED | NONNULL | IMMUTABLE | SIZED | SUBSIZED;
+	}
+
+	@Override
+	public Comparator<? super Long> getComparator() {
+		return null;
+	}
+}
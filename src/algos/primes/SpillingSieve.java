@@ -0,0 +1,370 @@
+package algos.primes;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.function.LongConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Sieve below a limit within an explicit heap budget : only a window of segments is in memory,
+ * the primes are written to a {@link PrimeTableFile} as the windows are done, then read back from the file.<br>
+ * The window is sieved on all the cores, its segments are then spilled in order through a bounded buffer of
+ * wheel bitmap words, each full buffer being written at its place in the file (FileChannel, positional writes).
+ * The block counts are written the same way behind the words, so the file is a regular table :
+ * it can be mapped with {@link PrimeTableFile#map(Path)} when it is below 2 GB.<br>
+ * The file holds 480 bits per 2310 numbers (2.3.5.7.11 wheel) : about 26 GB for the primes below 10^12.
+ */
+public class SpillingSieve {
+
+	/** Words of the output buffer and of the read buffer, at most (the buffer is shrunk for small budgets). */
+	private static final int MAX_BUFFER_WORDS = 1 << 16;
+	private static final int SEGMENT_BYTES = SegmentedSieve.SEGMENT_BITS / 8;
+
+	final Path path;
+	final Wheel wheel;
+	final long limit;
+	final long nbWords;
+	final long nbBlocks;
+
+	private SpillingSieve(Path path, Wheel wheel, long limit, long nbWords, long nbBlocks) {
+		this.path = path;
+		this.wheel = wheel;
+		this.limit = limit;
+		this.nbWords = nbWords;
+		this.nbBlocks = nbBlocks;
+	}
+
+	/**
+	 * Sieves the primes below limit into path, the arrays of the sieve taking at most heapBudget bytes
+	 * (base primes, window of segments and output buffer).
+	 */
+	public static SpillingSieve build(SegmentedSieve sieve, Path path, long limit, long heapBudget) {
+		if (limit < 0 || limit > RangeSieve.MAX_HI) {
+			throw new IllegalArgumentException("The limit must be in [0, " + RangeSieve.MAX_HI + "] : " + limit);
+		}
+		Wheel wheel = sieve.getWheel();
+		long nbWords = (WheelBitmap.bitCountFor(wheel, limit) + 63) >>> 6;
+		long nbBlocks = (nbWords + WheelBitmap.BLOCK_WORDS - 1) / WheelBitmap.BLOCK_WORDS;
+		int[] basePrimes = SegmentedSieve.basePrimesFor(limit);
+		long bufferWords = Math.min(MAX_BUFFER_WORDS, heapBudget / 4 / 8 / WheelBitmap.BLOCK_WORDS * WheelBitmap.BLOCK_WORDS);
+		long bufferBytes = 8 * (bufferWords + bufferWords / WheelBitmap.BLOCK_WORDS);
+		long nbSegments = (limit + SegmentedSieve.SEGMENT_SPAN - 1) / SegmentedSieve.SEGMENT_SPAN;
+		long windowSegments = Math.min(nbSegments, (heapBudget - 4L * basePrimes.length - bufferBytes) / SEGMENT_BYTES);
+		if (bufferWords == 0 || windowSegments < Math.min(nbSegments, 1)) {
+			throw new IllegalArgumentException("A heap budget of " + heapBudget + " bytes can not hold a segment of "
+					+ SEGMENT_BYTES + " bytes, the output buffer and the " + basePrimes.length + " base primes");
+		}
+		try {
+			Path temporary = PrimeTableFile.temporaryFileFor(path);
+			try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+				Spiller spiller = new Spiller(channel, wheel, nbWords, (int) bufferWords);
+				long[][] window = new long[(int) windowSegments][SegmentedSieve.SEGMENT_BITS / 64];
+				long from = wheel.getLargestPrime() + 1;
+				for (long first = 0 ; first < nbSegments ; first += window.length) {
+					long firstLow = first * SegmentedSieve.SEGMENT_SPAN;
+					int size = (int) Math.min(window.length, nbSegments - first);
+					IntStream.range(0, size).parallel()
+							.forEach(j -> sieve.sieveSegment(firstLow + j * SegmentedSieve.SEGMENT_SPAN, window[j], basePrimes));
+					for (int j = 0 ; j < size ; j++) {
+						SegmentedSieve.forEachPrime(firstLow + j * SegmentedSieve.SEGMENT_SPAN, window[j], from, limit, spiller);
+						spiller.rethrow();
+					}
+				}
+				spiller.finish();
+				channel.position(0);
+				PrimeTableFile.writeFully(channel, PrimeTableFile.header(wheel, limit, nbWords, nbBlocks));
+			}
+			Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return new SpillingSieve(path, wheel, limit, nbWords, nbBlocks);
+	}
+
+	/**
+	 * Opens a table written by build (or by {@link PrimeTableFile#write}), without reading its words.
+	 */
+	public static SpillingSieve open(Path path) {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate(PrimeTableFile.HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(channel, buffer, 0);
+			buffer.flip();
+			PrimeTableFile.Header header = PrimeTableFile.readHeader(buffer);
+			if (header == null
+					|| channel.size() != PrimeTableFile.HEADER_BYTES + 8 * (header.nbWords + header.nbBlocks)) {
+				throw new IllegalArgumentException(path + " is not a prime table");
+			}
+			return new SpillingSieve(path, Wheel.of(header.wheelPrimes), header.limit, header.nbWords, header.nbBlocks);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Sets the bits of the primes in a buffer of words, written to the file when a prime falls beyond it.
+	 * The buffer always starts on a block, so the block counts of its words are known when it is written.
+	 */
+	private static final class Spiller implements LongConsumer {
+
+		final FileChannel channel;
+		final Wheel wheel;
+		final long nbWords;
+		final ByteBuffer wordBytes;
+		final LongBuffer words;
+		final ByteBuffer countBytes;
+		final LongBuffer counts;
+		/** Index of the first word of the buffer, and number of set bits before it. */
+		long base;
+		long count;
+		IOException error;
+
+		Spiller(FileChannel channel, Wheel wheel, long nbWords, int bufferWords) {
+			this.channel = channel;
+			this.wheel = wheel;
+			this.nbWords = nbWords;
+			wordBytes = ByteBuffer.allocate(8 * bufferWords).order(ByteOrder.LITTLE_ENDIAN);
+			words = wordBytes.asLongBuffer();
+			countBytes = ByteBuffer.allocate(8 * (bufferWords / WheelBitmap.BLOCK_WORDS)).order(ByteOrder.LITTLE_ENDIAN);
+			counts = countBytes.asLongBuffer();
+		}
+
+		@Override
+		public void accept(long prime) {
+			long bit = wheel.bitOf(prime);
+			long word = bit >>> 6;
+			// the consumer can not throw an IOException : it is kept until the end of the segment
+			while (word >= base + words.capacity()) {
+				if (error != null) {
+					return;
+				}
+				try {
+					flush();
+				} catch (IOException e) {
+					error = e;
+				}
+			}
+			int index = (int) (word - base);
+			words.put(index, words.get(index) | 1L << bit);
+		}
+
+		void rethrow() throws IOException {
+			if (error != null) {
+				throw error;
+			}
+		}
+
+		/**
+		 * Writes the words of the buffer which are in the table, and their block counts.
+		 */
+		void flush() throws IOException {
+			int length = (int) Math.min(words.capacity(), nbWords - base);
+			int nbCounts = (length + WheelBitmap.BLOCK_WORDS - 1) / WheelBitmap.BLOCK_WORDS;
+			for (int i = 0 ; i < length ; i++) {
+				if (i % WheelBitmap.BLOCK_WORDS == 0) {
+					counts.put(i / WheelBitmap.BLOCK_WORDS, count);
+				}
+				count += Long.bitCount(words.get(i));
+			}
+			wordBytes.clear().limit(8 * length);
+			writeFully(channel, wordBytes, PrimeTableFile.HEADER_BYTES + 8 * base);
+			countBytes.clear().limit(8 * nbCounts);
+			writeFully(channel, countBytes, PrimeTableFile.HEADER_BYTES + 8 * (nbWords + base / WheelBitmap.BLOCK_WORDS));
+			Arrays.fill(wordBytes.array(), (byte) 0);
+			base += words.capacity();
+		}
+
+		void finish() throws IOException {
+			while (base < nbWords) {
+				flush();
+			}
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position);
+			if (read < 0) {
+				throw new IOException("Unexpected end of " + channel);
+			}
+			position += read;
+		}
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	public long getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Number of primes below the limit : the last block count, plus the bits of the last block.
+	 */
+	public long count() {
+		long count = Arrays.stream(wheel.primes).filter(prime -> prime < limit).count();
+		if (nbBlocks == 0) {
+			return count;
+		}
+		long lastBlock = nbBlocks - 1;
+		int length = (int) (nbWords - lastBlock * WheelBitmap.BLOCK_WORDS);
+		ByteBuffer buffer = ByteBuffer.allocate(8 * length).order(ByteOrder.LITTLE_ENDIAN);
+		ByteBuffer blockCount = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			readFully(channel, buffer, PrimeTableFile.HEADER_BYTES + 8 * lastBlock * WheelBitmap.BLOCK_WORDS);
+			readFully(channel, blockCount, PrimeTableFile.HEADER_BYTES + 8 * (nbWords + lastBlock));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		count += blockCount.getLong(0);
+		for (int i = 0 ; i < length ; i++) {
+			count += Long.bitCount(buffer.getLong(8 * i));
+		}
+		return count;
+	}
+
+	/**
+	 * The table mapped in memory, for the files below 2 GB.
+	 */
+	public WheelBitmap toWheelBitmap() {
+		return PrimeTableFile.map(path);
+	}
+
+	/**
+	 * Primes below the limit, in ascending order.
+	 */
+	public LongStream stream() {
+		return stream(0, limit);
+	}
+
+	/**
+	 * Primes within [lo, hi), read from the file through a bounded buffer : close the stream to release the file
+	 * if it is not read to the end.
+	 */
+	public LongStream stream(long lo, long hi) {
+		long from = Math.max(lo, 0), to = Math.min(hi, limit);
+		if (from >= to) {
+			return LongStream.empty();
+		}
+		LongStream wheelPrimes = Arrays.stream(wheel.primes).asLongStream().filter(prime -> from <= prime && prime < to);
+		FileSpliterator spliterator = new FileSpliterator(from, to);
+		return LongStream.concat(wheelPrimes, StreamSupport.longStream(spliterator, false).onClose(spliterator::close));
+	}
+
+	private final class FileSpliterator implements Spliterator.OfLong {
+
+		final long lo, hi;
+		final ByteBuffer buffer = ByteBuffer.allocate(8 * MAX_BUFFER_WORDS).order(ByteOrder.LITTLE_ENDIAN);
+		FileChannel channel;
+		/** Index of the word being decoded, its remaining bits, and the last word to read. */
+		long wordIndex;
+		long word;
+		final long endWord;
+
+		FileSpliterator(long lo, long hi) {
+			this.lo = lo;
+			this.hi = hi;
+			long bit = wheel.firstBitFrom(lo);
+			wordIndex = (bit >>> 6) - 1;
+			endWord = Math.min(nbWords, (WheelBitmap.bitCountFor(wheel, hi) + 63) >>> 6);
+			buffer.limit(0);
+		}
+
+		@Override
+		public boolean tryAdvance(LongConsumer action) {
+			while (true) {
+				while (word == 0) {
+					if (!nextWord()) {
+						return false;
+					}
+				}
+				long n = wheel.numberOf(64 * wordIndex + Long.numberOfTrailingZeros(word));
+				word &= word - 1;
+				if (n >= hi) {
+					word = 0;
+					wordIndex = endWord;
+					close();
+					return false;
+				}
+				if (n >= lo) {
+					action.accept(n);
+					return true;
+				}
+			}
+		}
+
+		private boolean nextWord() {
+			if (wordIndex + 1 >= endWord) {
+				close();
+				return false;
+			}
+			wordIndex++;
+			if (!buffer.hasRemaining()) {
+				try {
+					if (channel == null) {
+						channel = FileChannel.open(path, StandardOpenOption.READ);
+					}
+					buffer.clear().limit((int) (8 * Math.min(MAX_BUFFER_WORDS, endWord - wordIndex)));
+					readFully(channel, buffer, PrimeTableFile.HEADER_BYTES + 8 * wordIndex);
+					buffer.flip();
+				} catch (IOException e) {
+					close();
+					throw new UncheckedIOException(e);
+				}
+			}
+			word = buffer.getLong();
+			return true;
+		}
+
+		void close() {
+			if (channel != null) {
+				try {
+					channel.close();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				} finally {
+					channel = null;
+				}
+			}
+		}
+
+		@Override
+		public Spliterator.OfLong trySplit() {
+			return null;
+		}
+
+		@Override
+		public long estimateSize() {
+			return Long.MAX_VALUE;
+		}
+
+		@Override
+		public int characteristics() {
+			return ORDERED | DISTINCT | SORTED | NONNULL | IMMUTABLE;
+		}
+
+		@Override
+		public Comparator<? super Long> getComparator() {
+			return null;
+		}
+	}
+}
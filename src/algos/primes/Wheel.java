@@ -0,0 +1,145 @@
+package algos.primes;
+
+import java.util.Arrays;
+
+/**
+ * Primitive view of a factorization wheel : the product of the first primes (modulus)
+ * and the residues modulo this product which are coprime to it (spokes).<br>
+ * Only numbers sitting on a spoke can be primes (except the primes of the wheel).
+ */
+public class Wheel {
+
+	final int[] primes;
+	final int modulus;
+	final int[] spokes;
+	/** For each residue modulo the wheel, index of the spoke or -1 if the residue is not a spoke. */
+	final int[] spokeIndex;
+	/** For each residue r modulo the wheel (and the modulus itself), index of the first spoke >= r. */
+	final int[] firstSpokeFrom;
+	/** gaps[i] is the distance from spoke i to the next one (the last one going to the first spoke of the next turn). */
+	final byte[] gaps;
+
+	private Wheel(int[] wheelPrimes, int[] spokesOk) {
+		primes = wheelPrimes;
+		if (primes.length == 0 || primes[0] != 2) {
+			throw new IllegalArgumentException("The wheel must contain 2");
+		}
+		int product = 1;
+		for (int prime : primes) {
+			product *= prime;
+		}
+		modulus = product;
+		spokes = spokesOk;
+		spokeIndex = new int[modulus];
+		Arrays.fill(spokeIndex, -1);
+		for (int i = 0 ; i < spokes.length ; i++) {
+			spokeIndex[spokes[i]] = i;
+		}
+		firstSpokeFrom = new int[modulus + 1];
+		firstSpokeFrom[modulus] = spokes.length;
+		for (int r = modulus - 1 ; r >= 0 ; r--) {
+			firstSpokeFrom[r] = spokeIndex[r] >= 0 ? spokeIndex[r] : firstSpokeFrom[r + 1];
+		}
+		gaps = new byte[spokes.length];
+		for (int i = 0 ; i < spokes.length ; i++) {
+			int next = i + 1 < spokes.length ? spokes[i + 1] : modulus + spokes[0];
+			gaps[i] = (byte) (next - spokes[i]);
+		}
+	}
+
+	/**
+	 * Wheel of the given primes (ascending), the spokes being the residues coprime to their product.
+	 * The multiples of the primes are crossed off a boolean array, so that nothing is boxed.
+	 */
+	public static Wheel of(int... wheelPrimes) {
+		int modulus = 1;
+		for (int prime : wheelPrimes) {
+			modulus *= prime;
+		}
+		boolean[] multiple = new boolean[modulus];
+		int nbSpokes = modulus;
+		for (int prime : wheelPrimes) {
+			for (int m = 0 ; m < modulus ; m += prime) {
+				if (!multiple[m]) {
+					multiple[m] = true;
+					nbSpokes--;
+				}
+			}
+		}
+		int[] spokes = new int[nbSpokes];
+		for (int r = 1, i = 0 ; r < modulus ; r++) {
+			if (!multiple[r]) {
+				spokes[i++] = r;
+			}
+		}
+		return new Wheel(wheelPrimes.clone(), spokes);
+	}
+
+	public int getModulus() {
+		return modulus;
+	}
+
+	public int getLargestPrime() {
+		return primes[primes.length - 1];
+	}
+
+	public int[] getPrimes() {
+		return primes.clone();
+	}
+
+	public int[] getSpokes() {
+		return spokes.clone();
+	}
+
+	/**
+	 * Distances between consecutive spokes, the last one going to the first spoke of the next turn.
+	 */
+	public byte[] getGaps() {
+		return gaps.clone();
+	}
+
+	public int getNbSpokes() {
+		return spokes.length;
+	}
+
+	public boolean isOnSpoke(long n) {
+		return spokeIndex[(int) (n % modulus)] >= 0;
+	}
+
+	/**
+	 * Bit of n >= 0 sitting on a spoke, in the tables keeping one bit per spoke and per wheel turn
+	 * ({@link WheelBitmap}, {@link PrimeTableFile}) : (n / modulus) * nbSpokes + spokeIndex[n % modulus].
+	 */
+	long bitOf(long n) {
+		return (n / modulus) * spokes.length + spokeIndex[(int) (n % modulus)];
+	}
+
+	/**
+	 * Bit of the first number >= n sitting on a spoke : the number of spokes below n.
+	 */
+	long firstBitFrom(long n) {
+		return (n / modulus) * spokes.length + firstSpokeFrom[(int) (n % modulus)];
+	}
+
+	/**
+	 * Number standing for the given bit, inverse of bitOf.
+	 */
+	long numberOf(long bit) {
+		return (bit / spokes.length) * modulus + spokes[(int) (bit % spokes.length)];
+	}
+
+	/**
+	 * Bitmap of the odd numbers sitting on a spoke : bit g is set if 2g+1 is on a spoke.<br>
+	 * The wheel has modulus/2 odd numbers, so modulus/2 words hold a whole number of wheel turns
+	 * and can be copied word by word at any offset multiple of 128.
+	 */
+	long[] getOddPattern() {
+		int period = modulus / 2;
+		long[] pattern = new long[period];
+		long end = 128L * period;
+		for (long n = spokes[0], spoke = 0 ; n < end ; n += gaps[(int) spoke], spoke = (spoke + 1) % spokes.length) {
+			pattern[(int) (n >>> 7)] |= 1L << (n >>> 1);
+		}
+		return pattern;
+	}
+}
@@ -0,0 +1,194 @@
+package algos.primes;
+
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Prime table keeping one bit per spoke and per wheel turn : with the 2.3.5.7.11 wheel,
+ * 480 bits for 2310 numbers, about 26 MB for all the primes below 10^9.<br>
+ * The number n is the bit (n / modulus) * nbSpokes + spokeIndex[n % modulus] (see Wheel.bitOf),
+ * numbers outside the spokes are never primes (except the primes of the wheel).<br>
+ * The words are read through a LongBuffer, so that the table can be a heap array or a mapped file
+ * (see {@link PrimeTableFile}). Every BLOCK_WORDS words, the number of primes before the block
+ * is kept to count primes without scanning the whole table.
+ */
+public class WheelBitmap {
+
+	/** A long[] holds at most Integer.MAX_VALUE words. */
+	private static final long MAX_BITS = 64L * (Integer.MAX_VALUE - 8);
+	static final int BLOCK_WORDS = 64;
+
+	final Wheel wheel;
+	final long limit;
+	final LongBuffer bits;
+	final int nbWords;
+	/** Number of primes of the bitmap before each block of BLOCK_WORDS words. */
+	final LongBuffer blockCounts;
+
+	WheelBitmap(Wheel wheel, long limit, LongBuffer bits, LongBuffer blockCounts) {
+		this.wheel = wheel;
+		this.limit = limit;
+		this.bits = bits;
+		this.nbWords = bits.capacity();
+		this.blockCounts = blockCounts;
+	}
+
+	WheelBitmap(Wheel wheel, long limit, long[] bits) {
+		this(wheel, limit, LongBuffer.wrap(bits), LongBuffer.wrap(getBlockCounts(bits)));
+	}
+
+	private static long[] getBlockCounts(long[] bits) {
+		long[] blockCounts = new long[(bits.length + BLOCK_WORDS - 1) / BLOCK_WORDS];
+		long count = 0;
+		for (int i = 0 ; i < bits.length ; i++) {
+			if (i % BLOCK_WORDS == 0) {
+				blockCounts[i / BLOCK_WORDS] = count;
+			}
+			count += Long.bitCount(bits[i]);
+		}
+		return blockCounts;
+	}
+
+	/**
+	 * Sieves the primes below limit and keeps them in a wheel-compressed bitmap.
+	 */
+	public static WheelBitmap build(SegmentedSieve sieve, long limit) {
+		Wheel wheel = sieve.getWheel();
+		long nbBits = bitCountFor(wheel, limit);
+		if (nbBits > MAX_BITS) {
+			throw new IllegalArgumentException("Limit too high for a wheel bitmap : " + limit);
+		}
+		long[] bits = new long[(int) ((nbBits + 63) >>> 6)];
+		sieve.stream(wheel.getLargestPrime() + 1, limit).forEach(prime -> {
+			long bit = wheel.bitOf(prime);
+			bits[(int) (bit >>> 6)] |= 1L << bit;
+		});
+		return new WheelBitmap(wheel, limit, bits);
+	}
+
+	static long bitCountFor(Wheel wheel, long limit) {
+		return wheel.firstBitFrom(limit);
+	}
+
+	public long getLimit() {
+		return limit;
+	}
+
+	public Wheel getWheel() {
+		return wheel;
+	}
+
+	public long getMemoryBytes() {
+		return 8L * (nbWords + blockCounts.capacity());
+	}
+
+	/**
+	 * @param n number lower than the limit of the table
+	 */
+	public boolean isPrime(long n) {
+		checkInTable(n);
+		int residue = (int) (n % wheel.modulus);
+		if (wheel.spokeIndex[residue] < 0) {
+			return n < wheel.modulus && Arrays.binarySearch(wheel.primes, residue) >= 0;
+		}
+		long bit = wheel.bitOf(n);
+		return (bits.get((int) (bit >>> 6)) & (1L << bit)) != 0;
+	}
+
+	/**
+	 * @return the smallest prime strictly greater than n, or -1 if there is none below the limit of the table
+	 */
+	public long nextPrime(long n) {
+		if (n < wheel.getLargestPrime()) {
+			for (int prime : wheel.primes) {
+				if (prime > n) {
+					return prime < limit ? prime : -1;
+				}
+			}
+		}
+		long from = n + 1;
+		if (from >= limit) {
+			return -1;
+		}
+		long bit = wheel.firstBitFrom(from);
+		int wordIndex = (int) (bit >>> 6);
+		if (wordIndex >= nbWords) {
+			return -1;
+		}
+		long word = bits.get(wordIndex) & (-1L << bit);
+		while (word == 0) {
+			if (++wordIndex == nbWords) {
+				return -1;
+			}
+			word = bits.get(wordIndex);
+		}
+		long prime = wheel.numberOf(64L * wordIndex + Long.numberOfTrailingZeros(word));
+		return prime < limit ? prime : -1;
+	}
+
+	/**
+	 * Number of primes lower than or equal to x (pi(x)), x being lower than the limit of the table.
+	 */
+	public long countPrimes(long x) {
+		checkInTable(x);
+		long count = 0;
+		for (int prime : wheel.primes) {
+			if (prime <= x) {
+				count++;
+			}
+		}
+		long from = x + 1;
+		long bit = wheel.firstBitFrom(from);
+		int wordIndex = (int) (bit >>> 6);
+		if (blockCounts.capacity() == 0) {
+			return count;
+		}
+		int block = wordIndex / BLOCK_WORDS;
+		if (block >= blockCounts.capacity()) {
+			block = blockCounts.capacity() - 1;
+		}
+		count += blockCounts.get(block);
+		for (int i = block * BLOCK_WORDS ; i < Math.min(wordIndex, nbWords) ; i++) {
+			count += Long.bitCount(bits.get(i));
+		}
+		if (wordIndex < nbWords && (bit & 63) != 0) {
+			count += Long.bitCount(bits.get(wordIndex) & ((1L << bit) - 1));
+		}
+		return count;
+	}
+
+	/**
+	 * Primes of the table in ascending order.
+	 */
+	public LongStream stream() {
+		PrimitiveIterator.OfLong iterator = new PrimitiveIterator.OfLong() {
+			long next = nextPrime(-1);
+
+			@Override
+			public boolean hasNext() {
+				return next >= 0;
+			}
+
+			@Override
+			public long nextLong() {
+				long prime = next;
+				next = nextPrime(prime);
+				return prime;
+			}
+		};
+		int characteristics = Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.SORTED
+				| Spliterator.NONNULL | Spliterator.IMMUTABLE;
+		return StreamSupport.longStream(Spliterators.spliteratorUnknownSize(iterator, characteristics), false);
+	}
+
+	private void checkInTable(long n) {
+		if (n < 0 || n >= limit) {
+			throw new IllegalArgumentException(n + " is outside the table [0, " + limit + ")");
+		}
+	}
+}
@@ -0,0 +1,253 @@
+package algos.primes.bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.function.LongFunction;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import algos.Primes;
+import algos.PrimesSave1;
+import algos.primes.AtkinSieve;
+import algos.primes.ParallelSieve;
+import algos.primes.PrimalityTest;
+import algos.primes.PrimeCounting;
+import algos.primes.SegmentedSieve;
+import algos.primes.Wheel;
+import algos.primes.WheelBitmap;
+
+/**
+ * Benchmark harness for the prime generators, with the controls of JMH (the project has no build
+ * to pull the JMH dependency) : each benchmark and size runs in forked JVMs, with warm-up iterations
+ * then measurement iterations, and the results are written in the JSON layout of JMH.<br>
+ * Usage : <code>PrimesBenchmark [regexp] [-f forks] [-wi warmups] [-i iterations] [-p size=10000,1000000]
+ * [-rff results.json]</code><br>
+ * Time benchmarks are measured in ms/op (one op = the whole generation or the batch of lookups),
+ * memory benchmarks in bytes per prime kept, once per fork.
+ */
+public class PrimesBenchmark {
+
+	private static final String CHILD = "--child";
+	private static final String RESULT = "RESULT ";
+	private static final int LOOKUPS = 1_000_000;
+
+	/** One benchmark : the setup (not measured) gives the measured operation for a size. */
+	static class Definition {
+		final String mode;
+		final String unit;
+		final long maxSize;
+		final LongFunction<LongSupplier> setup;
+
+		Definition(String mode, String unit, long maxSize, LongFunction<LongSupplier> setup) {
+			this.mode = mode;
+			this.unit = unit;
+			this.maxSize = maxSize;
+			this.setup = setup;
+		}
+	}
+
+	static final Map<String, Definition> BENCHMARKS = new LinkedHashMap<>();
+
+	static {
+		Wheel wheel = Wheel.of(2, 3, 5, 7, 11);
+		SegmentedSieve sieve = new SegmentedSieve(wheel);
+		time("firstN.primesSave1", 100_000L, n -> () -> PrimesSave1.stream().limit(n).max().getAsInt());
+		time("firstN.primes", 100_000_000L, n -> () -> Primes.stream().limit(n).max().getAsInt());
+		time("firstN.lazySegmented", 1_000_000_000L, n -> () -> Primes.longStream().limit(n).max().getAsLong());
+		time("firstN.nthPrime", 1_000_000_000L, n -> () -> new PrimeCounting(sieve).nthPrime(n));
+		time("upToX.primesSave1", 1_000_000L, x -> () -> countUpTo(PrimesSave1.stream().iterator(), x));
+		time("upToX.segmented", 1_000_000_000L, x -> () -> sieve.stream(x).count());
+		time("upToX.parallel", 1_000_000_000L, x -> () -> new ParallelSieve(sieve).count(x));
+		time("upToX.eratosthenes", 1_000_000_000L, x -> () -> new SegmentedSieve(Wheel.of(2)).count(0, x));
+		time("upToX.atkin", 1_000_000_000L, x -> () -> new AtkinSieve().count(0, x));
+		time("upToX.wheelBitmap", 1_000_000_000L, x -> () -> WheelBitmap.build(sieve, x).getLimit());
+		time("upToX.pi", 1_000_000_000L, x -> () -> new PrimeCounting(sieve).pi(x));
+		time("isPrime.wheelBitmap", 1_000_000_000L, x -> {
+			WheelBitmap table = WheelBitmap.build(sieve, x);
+			long[] values = randomValues(x);
+			return () -> Arrays.stream(values).filter(table::isPrime).count();
+		});
+		time("isPrime.millerRabin", 1_000_000_000L, x -> {
+			PrimalityTest test = new PrimalityTest(WheelBitmap.build(sieve, 1 << 10));
+			long[] values = randomValues(x);
+			boolean[] results = new boolean[values.length];
+			return () -> {
+				test.isPrime(values, results);
+				return results.length;
+			};
+		});
+		memory("memoryPerPrime.primesSave1", 100_000L, n -> () -> {
+			PrimesSave1 primes = new PrimesSave1();
+			primes.solve().limit(n).max();
+			return primes;
+		});
+		memory("memoryPerPrime.wheelBitmap", 1_000_000_000L, x -> () -> WheelBitmap.build(sieve, x));
+		memory("memoryPerPrime.longArray", 100_000_000L, x -> () -> sieve.stream(x).toArray());
+	}
+
+	private static void time(String name, long maxSize, LongFunction<LongSupplier> setup) {
+		BENCHMARKS.put(name, new Definition("avgt", "ms/op", maxSize, setup));
+	}
+
+	/**
+	 * Memory benchmarks keep the object built by the supplier and report the heap it holds per prime,
+	 * the number of primes being the size for first-N benchmarks and pi(size) otherwise.
+	 */
+	private static void memory(String name, long maxSize, LongFunction<Supplier<Object>> builder) {
+		BENCHMARKS.put(name, new Definition("memory", "B/prime", maxSize, size -> {
+			long nbPrimes = name.contains("primesSave1") ? size : Primes.pi(size - 1);
+			Supplier<Object> build = builder.apply(size);
+			return () -> {
+				long before = usedHeap();
+				Object kept = build.get();
+				long bytes = usedHeap() - before;
+				return kept.hashCode() == 0 ? 0 : Math.round(1000.0 * bytes / nbPrimes);
+			};
+		}));
+	}
+
+	/**
+	 * Used heap once the garbage collections do not free anything more.
+	 */
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		long used = Long.MAX_VALUE;
+		for (int i = 0 ; i < 10 ; i++) {
+			System.gc();
+			long current = runtime.totalMemory() - runtime.freeMemory();
+			if (current >= used) {
+				break;
+			}
+			used = current;
+		}
+		return used;
+	}
+
+	private static long countUpTo(PrimitiveIterator.OfInt primes, long x) {
+		long count = 0;
+		while (primes.nextInt() < x) {
+			count++;
+		}
+		return count;
+	}
+
+	private static long[] randomValues(long bound) {
+		return new Random(42).longs(LOOKUPS, 0, bound).toArray();
+	}
+
+	public static void main(String... args) throws Exception {
+		if (args.length > 0 && args[0].equals(CHILD)) {
+			runChild(args[1], Long.parseLong(args[2]), Integer.parseInt(args[3]), Integer.parseInt(args[4]));
+			return;
+		}
+		Pattern filter = Pattern.compile(".*");
+		int forks = 1, warmups = 3, iterations = 5;
+		List<Long> sizes = Arrays.asList(10_000L, 100_000L, 1_000_000L, 10_000_000L, 100_000_000L, 1_000_000_000L);
+		String resultFile = "bench_output.json";
+		for (int i = 0 ; i < args.length ; i++) {
+			switch (args[i]) {
+			case "-f": forks = Integer.parseInt(args[++i]); break;
+			case "-wi": warmups = Integer.parseInt(args[++i]); break;
+			case "-i": iterations = Integer.parseInt(args[++i]); break;
+			case "-p": sizes = Arrays.stream(args[++i].replace("size=", "").split(","))
+					.map(Long::parseLong).collect(Collectors.toList()); break;
+			case "-rff": resultFile = args[++i]; break;
+			default: filter = Pattern.compile(args[i]);
+			}
+		}
+		List<String> results = new ArrayList<>();
+		for (Map.Entry<String, Definition> benchmark : BENCHMARKS.entrySet()) {
+			if (!filter.matcher(benchmark.getKey()).find()) {
+				continue;
+			}
+			for (long size : sizes) {
+				if (size > benchmark.getValue().maxSize) {
+					continue;
+				}
+				List<Double> raw = new ArrayList<>();
+				for (int fork = 0 ; fork < forks ; fork++) {
+					raw.addAll(runFork(benchmark.getKey(), size, warmups, iterations));
+				}
+				results.add(toJson(benchmark.getKey(), benchmark.getValue(), size, forks, warmups, raw));
+			}
+		}
+		Files.write(Paths.get(resultFile), ("[\n" + String.join(",\n", results) + "\n]\n").getBytes(StandardCharsets.UTF_8));
+		System.out.println("Results written in " + resultFile);
+	}
+
+	private static List<Double> runFork(String name, long size, int warmups, int iterations)
+			throws IOException, InterruptedException {
+		String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+		Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+				PrimesBenchmark.class.getName(), CHILD, name, Long.toString(size),
+				Integer.toString(warmups), Integer.toString(iterations))
+				.redirectErrorStream(true).start();
+		List<Double> scores = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+			for (String line = reader.readLine() ; line != null ; line = reader.readLine()) {
+				if (line.startsWith(RESULT)) {
+					scores.add(Double.parseDouble(line.substring(RESULT.length())));
+					System.out.println(name + " size=" + size + " : " + line.substring(RESULT.length()));
+				}
+			}
+		}
+		if (process.waitFor() != 0) {
+			throw new IllegalStateException("Fork of " + name + " (size " + size + ") failed");
+		}
+		return scores;
+	}
+
+	private static void runChild(String name, long size, int warmups, int iterations) {
+		Definition definition = BENCHMARKS.get(name);
+		LongSupplier operation = definition.setup.apply(size);
+		if (definition.mode.equals("memory")) {
+			// Measured once, before the JIT compiles the builders : later runs are not reliable
+			warmups = 0;
+			iterations = 1;
+		}
+		long sink = 0;
+		for (int i = 0 ; i < warmups + iterations ; i++) {
+			long before = System.nanoTime();
+			long value = operation.getAsLong();
+			double elapsed = (System.nanoTime() - before) / 1e6;
+			sink += value;
+			if (i >= warmups) {
+				double score = definition.mode.equals("memory") ? value / 1000.0 : elapsed;
+				System.out.println(RESULT + String.format(Locale.ROOT, "%.6f", score));
+			}
+		}
+		if (sink == 42) {
+			System.out.println(); // keeps the results alive
+		}
+	}
+
+	/**
+	 * One result in the JSON layout of JMH, the error being the 99.9% confidence half-width (normal approximation).
+	 */
+	private static String toJson(String name, Definition definition, long size, int forks, int warmups, List<Double> raw) {
+		double mean = raw.stream().mapToDouble(d -> d).average().orElse(Double.NaN);
+		double variance = raw.stream().mapToDouble(d -> (d - mean) * (d - mean)).sum() / Math.max(1, raw.size() - 1);
+		double error = 3.291 * Math.sqrt(variance / raw.size());
+		String rawData = raw.stream().map(d -> String.format(Locale.ROOT, "%.6f", d)).collect(Collectors.joining(", "));
+		return String.format(Locale.ROOT, "  {\n    \"benchmark\" : \"%s.%s\",\n    \"mode\" : \"%s\",\n"
+				+ "    \"forks\" : %d,\n    \"warmupIterations\" : %d,\n    \"measurementIterations\" : %d,\n"
+				+ "    \"params\" : { \"size\" : \"%d\" },\n"
+				+ "    \"primaryMetric\" : { \"score\" : %.6f, \"scoreError\" : %.6f, \"scoreUnit\" : \"%s\", \"rawData\" : [ [ %s ] ] }\n  }",
+				PrimesBenchmark.class.getName(), name, definition.mode, forks, warmups, raw.size() / Math.max(1, forks),
+				size, mean, error, definition.unit, rawData);
+	}
+}